@@ -0,0 +1,62 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+import io.github.hotlava03.baclavaframework.BaclavaFrameworkBuilder;
+import io.github.hotlava03.baclavaframework.CommandDescription;
+import io.github.hotlava03.baclavaframework.CommandRegisterer;
+import io.github.hotlava03.baclavaframework.ReplayLoadGenerator;
+import net.dv8tion.jda.api.JDABuilder;
+
+/**
+ * Training run for the AppCDS archive built by the {@code appCdsArchive} Gradle task.
+ * Loads the classes used at startup and on the dispatch path, from the framework and
+ * its dependencies, without connecting to Discord. It isn't part of the framework jar:
+ * the task runs it as a source file, so the class path holds only the jars to archive.
+ */
+public final class CdsTraining {
+    private CdsTraining() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandRegisterer registerer = new CommandRegisterer() {
+            @Override
+            public void handleRegistration() {
+                this.register(new CommandDescription("ping", null, null, new String[]{"p"}), e -> "Pong!");
+                this.register("echo", e -> String.join(" ", e.getArgs()));
+            }
+        };
+        BaclavaFrameworkBuilder builder = new BaclavaFrameworkBuilder()
+                .setCommandRegisterer(registerer)
+                .setPrefix("!")
+                .setOwnerId(1);
+        new ReplayLoadGenerator(builder)
+                .addCommand("!ping", 5)
+                .addCommand("!p", 1)
+                .addCommand("!echo hello --flag", 2)
+                .addCommand("!unknown", 1)
+                .addCommand("hello", 5)
+                .setWarmupCount(1000)
+                .setMessageCount(5000)
+                .run();
+        // Only run when connecting, loaded so it is archived too.
+        Class.forName("io.github.hotlava03.baclavaframework.Warmup");
+
+        // Not built, only loaded: building would connect.
+        new JDABuilder().setToken("training");
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A running {@link CacheAggregator} aggregation.
+ *
+ * @param <R> The result type.
+ */
+public class Aggregation<R> {
+    final CompletableFuture<R> future = new CompletableFuture<>();
+    final LongAdder processed = new LongAdder();
+    volatile long total = -1;
+
+    Aggregation() {
+    }
+
+    /**
+     * Stop the aggregation. Guilds being processed are finished, the others are skipped.
+     *
+     * @return False if it was already done.
+     */
+    public boolean cancel() {
+        return this.future.cancel(false);
+    }
+
+    /**
+     * @return True if the aggregation finished, failed or was cancelled.
+     */
+    public boolean isDone() {
+        return this.future.isDone();
+    }
+
+    /**
+     * @return How much of the snapshot was processed, from 0 to 1. 0 until the snapshot was taken.
+     */
+    public double getProgress() {
+        long total = this.total;
+        if (total < 0) return 0;
+        return total == 0 ? 1 : Math.min(1, (double) this.processed.sum() / total);
+    }
+
+    /**
+     * Wait for the result. Prefer {@link #toFuture()} on event threads.
+     *
+     * @return The result.
+     * @throws CancellationException If the aggregation was cancelled.
+     * @throws CompletionException If the collector threw an exception.
+     */
+    public R join() {
+        return this.future.join();
+    }
+
+    /**
+     * @return A future completed with the result. Cancelling it cancels the aggregation.
+     */
+    public CompletableFuture<R> toFuture() {
+        return future;
+    }
+
+    boolean isCancelled() {
+        return this.future.isCancelled();
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Audit trail of every command invocation. The dispatch path only copies references into
+ * a preallocated ring of slots, a single writer thread turns them into newline delimited,
+ * tab separated records and appends them to rolling files in batches:
+ * <pre>timestamp  userId  guildId  channelId  messageId  command  outcome  latencyNanos  arguments</pre>
+ * guildId is 0 for direct messages, and tabs, newlines and backslashes in arguments are escaped.
+ */
+class AuditLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuditLog.class);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AuditOverflowPolicy policy;
+    private final Path directory;
+    private final long maxFileSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+    private final LongAdder dropped = new LongAdder();
+    private final StringBuilder batch = new StringBuilder(16 * 1024);
+    private final Thread writer;
+    private long head;
+    private long tail;
+    private boolean closed;
+    private FileChannel file;
+    private long fileSize;
+
+    /**
+     * @param directory Where to write the audit files.
+     * @param capacity The amount of records buffered before the policy applies. Rounded up to a power of two.
+     * @param policy What to do when the buffer is full.
+     * @param maxFileSize Size after which a new file is started.
+     * @throws IOException If the directory can't be created.
+     */
+    AuditLog(Path directory, int capacity, AuditOverflowPolicy policy, long maxFileSize) throws IOException {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) this.slots[i] = new Slot();
+        this.mask = size - 1;
+        this.policy = policy;
+        this.directory = Files.createDirectories(directory);
+        this.maxFileSize = maxFileSize;
+        this.writer = new Thread(this::drain, "baclava-audit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Record an invocation. Never blocks with {@link AuditOverflowPolicy#DROP}.
+     *
+     * @return False if the record was dropped.
+     */
+    boolean record(CommandEvent e, String command, FrameworkMetrics.Outcome outcome, long latencyNanos) {
+        this.lock.lock();
+        try {
+            while (this.head - this.tail == this.slots.length) {
+                if (this.policy == AuditOverflowPolicy.DROP || this.closed) {
+                    this.dropped.increment();
+                    return false;
+                }
+                this.notFull.awaitUninterruptibly();
+            }
+            if (this.closed) {
+                this.dropped.increment();
+                return false;
+            }
+
+            Slot slot = this.slots[(int) (this.head & this.mask)];
+            slot.timestamp = System.currentTimeMillis();
+            slot.userId = e.getAuthor().getIdLong();
+            slot.guildId = e.hasGuild() ? e.getGuild().getIdLong() : 0;
+            slot.channelId = e.getChannel().getIdLong();
+            slot.messageId = e.getMessage().getIdLong();
+            slot.command = command;
+            slot.outcome = outcome;
+            slot.latencyNanos = latencyNanos;
+            slot.arguments = e.getContent();
+            if (this.head++ == this.tail) this.notEmpty.signal();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting records, write everything still buffered and close the current file.
+     *
+     * @param timeout The maximum time to wait for the writer.
+     * @param unit The timeout unit.
+     * @return True if everything was written in time.
+     */
+    boolean close(long timeout, TimeUnit unit) {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.notEmpty.signal();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.writer.join(Math.max(unit.toMillis(timeout), 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !this.writer.isAlive();
+    }
+
+    long getPending() {
+        this.lock.lock();
+        try {
+            return this.head - this.tail;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_audit_pending_records", "Audit records waiting to be written.", null, this::getPending);
+        metrics.counter("baclava_audit_dropped_records", "Audit records dropped because the buffer was full.", null,
+                this::getDropped);
+    }
+
+    private void drain() {
+        while (true) {
+            long from;
+            long to;
+            boolean last;
+            this.lock.lock();
+            try {
+                while (this.head == this.tail && !this.closed) this.notEmpty.awaitUninterruptibly();
+                from = this.tail;
+                to = this.head;
+                last = this.closed;
+            } finally {
+                this.lock.unlock();
+            }
+
+            // Slots between tail and head can't be overwritten until tail moves, no need to hold the lock.
+            this.batch.setLength(0);
+            for (long i = from; i < to; i++) this.slots[(int) (i & this.mask)].appendTo(this.batch);
+            this.write();
+
+            this.lock.lock();
+            try {
+                for (long i = from; i < to; i++) this.slots[(int) (i & this.mask)].clear();
+                this.tail = to;
+                this.notFull.signalAll();
+                if (last && this.head == this.tail) break;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+        this.closeFile();
+    }
+
+    private void write() {
+        if (this.batch.length() == 0) return;
+        ByteBuffer bytes = ByteBuffer.wrap(this.batch.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            if (this.file == null || this.fileSize >= this.maxFileSize) this.roll();
+            while (bytes.hasRemaining()) this.fileSize += this.file.write(bytes);
+        } catch (IOException e) {
+            LOGGER.error("Could not write " + bytes.remaining() + " bytes of audit records.", e);
+            this.closeFile();
+        }
+    }
+
+    private void roll() throws IOException {
+        this.closeFile();
+        String name = "audit-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + ".log";
+        this.file = FileChannel.open(this.directory.resolve(name),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.fileSize = this.file.size();
+    }
+
+    private void closeFile() {
+        if (this.file == null) return;
+        try {
+            this.file.force(false);
+            this.file.close();
+        } catch (IOException e) {
+            LOGGER.error("Could not close the audit file.", e);
+        }
+        this.file = null;
+    }
+
+    private static class Slot {
+        long timestamp;
+        long userId;
+        long guildId;
+        long channelId;
+        long messageId;
+        String command;
+        FrameworkMetrics.Outcome outcome;
+        long latencyNanos;
+        String arguments;
+
+        void appendTo(StringBuilder out) {
+            out.append(this.timestamp).append('\t')
+                    .append(this.userId).append('\t')
+                    .append(this.guildId).append('\t')
+                    .append(this.channelId).append('\t')
+                    .append(this.messageId).append('\t')
+                    .append(this.command).append('\t')
+                    .append(this.outcome.label).append('\t')
+                    .append(this.latencyNanos).append('\t');
+            for (int i = 0; i < this.arguments.length(); i++) {
+                char c = this.arguments.charAt(i);
+                if (c == '\t') out.append("\\t");
+                else if (c == '\n') out.append("\\n");
+                else if (c == '\r') out.append("\\r");
+                else if (c == '\\') out.append("\\\\");
+                else out.append(c);
+            }
+            out.append('\n');
+        }
+
+        void clear() {
+            this.command = null;
+            this.outcome = null;
+            this.arguments = null;
+        }
+    }
+}
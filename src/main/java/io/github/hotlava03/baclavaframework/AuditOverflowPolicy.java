@@ -0,0 +1,38 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.nio.file.Path;
+
+/**
+ * What to do with a command invocation when the audit log buffer is full,
+ * which only happens when the disk can't keep up.
+ *
+ * @see BaclavaFrameworkBuilder#setAuditLog(Path directory, int capacity, AuditOverflowPolicy policy, long maxFileSize)
+ */
+public enum AuditOverflowPolicy {
+    /**
+     * Drop the record and count it in the metrics. Commands are never slowed down.
+     */
+    DROP,
+    /**
+     * Wait for the writer to make room. No record is lost, but commands stall with the disk.
+     */
+    BLOCK
+}
@@ -0,0 +1,82 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declare a command, registered by a {@link CommandRegisterer} generated at compile time
+ * by {@link BaclavaCommandProcessor}. Annotate either a class extending {@link Command}
+ * with a public no-args constructor, or a public method taking a {@link CommandEvent} and
+ * returning the reply (a {@link String}, or void):
+ * <pre>{@code
+ * public class FunCommands {
+ *     @BaclavaCommand(value = "roll", aliases = "dice", usage = "roll [sides]")
+ *     public static String roll(CommandEvent e) {
+ *         return "You rolled " + ThreadLocalRandom.current().nextInt(1, 7);
+ *     }
+ * }
+ * }</pre>
+ * Instance methods are called on one instance of their class, created with its public
+ * no-args constructor. Empty strings mean the value isn't set.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface BaclavaCommand {
+    /**
+     * @return The command name. Defaults to the method name, or the class name in lower case
+     *         without a "Command" suffix.
+     */
+    String value() default "";
+
+    /**
+     * @return The category. Use "owner" for owner commands.
+     */
+    String category() default "";
+
+    /**
+     * @return The description.
+     */
+    String description() default "";
+
+    /**
+     * @return The aliases.
+     */
+    String[] aliases() default {};
+
+    /**
+     * @return The usage.
+     */
+    String usage() default "";
+
+    /**
+     * @return The examples.
+     */
+    String examples() default "";
+
+    /**
+     * @return The flags, without "--".
+     */
+    String[] flags() default {};
+}
@@ -0,0 +1,260 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a {@link CommandRegisterer} registering every {@link BaclavaCommand} of the
+ * compiled sources, so commands are found at compile time rather than by scanning the
+ * classpath, and invoked through method references rather than reflection. Add the framework
+ * to the annotation processor path to use it:
+ * <pre>annotationProcessor fileTree(dir: 'lib', include: '*.jar')</pre>
+ * The registerer is named {@code BaclavaCommands}, in the package shared by all annotated
+ * elements. Set the {@code baclava.registerer} processor option to a fully qualified class
+ * name to choose another one.
+ */
+@SupportedAnnotationTypes("io.github.hotlava03.baclavaframework.BaclavaCommand")
+@SupportedOptions(BaclavaCommandProcessor.REGISTERER_OPTION)
+public class BaclavaCommandProcessor extends AbstractProcessor {
+    static final String REGISTERER_OPTION = "baclava.registerer";
+
+    private Elements elements;
+    private Types types;
+    private Messager messager;
+    private Filer filer;
+    private boolean generated;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+        this.messager = processingEnv.getMessager();
+        this.filer = processingEnv.getFiler();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        List<Element> annotated = new ArrayList<>(round.getElementsAnnotatedWith(BaclavaCommand.class));
+        if (annotated.isEmpty()) return false;
+        if (this.generated) {
+            for (Element element : annotated)
+                this.messager.printMessage(Diagnostic.Kind.ERROR,
+                        "@BaclavaCommand can't be used in generated sources.", element);
+            return false;
+        }
+        this.generated = true;
+        annotated.sort(Comparator.comparing(this::describe));
+
+        Map<String, Element> names = new HashMap<>();
+        List<String> registrations = new ArrayList<>();
+        Map<TypeElement, String> instances = new LinkedHashMap<>();
+        boolean valid = true;
+        for (Element element : annotated) {
+            BaclavaCommand annotation = element.getAnnotation(BaclavaCommand.class);
+            String name = annotation.value().isEmpty() ? this.defaultName(element) : annotation.value();
+            Element previous = names.put(name, element);
+            if (previous != null) {
+                this.messager.printMessage(Diagnostic.Kind.ERROR, "The command " + name + " is already declared by "
+                        + this.describe(previous) + ".", element);
+                valid = false;
+                continue;
+            }
+
+            String description = this.description(name, annotation);
+            if (element.getKind() == ElementKind.CLASS && this.checkClass((TypeElement) element)) {
+                registrations.add("this.registerCommand(" + description + ", new "
+                        + ((TypeElement) element).getQualifiedName() + "());");
+            } else if (element.getKind() == ElementKind.METHOD && this.checkMethod((ExecutableElement) element)) {
+                registrations.add("this.register(" + description + ", " + this.invoker((ExecutableElement) element, instances) + ");");
+            } else if (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.METHOD) {
+                valid = this.error(element, "@BaclavaCommand can only be used on classes and methods.");
+            } else {
+                valid = false;
+            }
+        }
+        if (valid) this.write(annotated, instances, registrations);
+        return false;
+    }
+
+    private boolean checkClass(TypeElement type) {
+        TypeMirror command = this.elements.getTypeElement(Command.class.getCanonicalName()).asType();
+        if (!this.types.isAssignable(type.asType(), command))
+            return this.error(type, "Classes annotated with @BaclavaCommand must extend Command.");
+        if (type.getModifiers().contains(Modifier.ABSTRACT))
+            return this.error(type, "Classes annotated with @BaclavaCommand can't be abstract.");
+        return this.checkInstantiable(type, type);
+    }
+
+    private boolean checkMethod(ExecutableElement method) {
+        if (!method.getModifiers().contains(Modifier.PUBLIC))
+            return this.error(method, "Methods annotated with @BaclavaCommand must be public.");
+        TypeMirror event = this.elements.getTypeElement(CommandEvent.class.getCanonicalName()).asType();
+        if (method.getParameters().size() != 1 || !this.types.isSameType(method.getParameters().get(0).asType(), event))
+            return this.error(method, "Methods annotated with @BaclavaCommand must take a single CommandEvent.");
+        TypeMirror result = method.getReturnType();
+        TypeMirror string = this.elements.getTypeElement(String.class.getCanonicalName()).asType();
+        if (result.getKind() != TypeKind.VOID && !this.types.isSameType(result, string))
+            return this.error(method, "Methods annotated with @BaclavaCommand must return a String or nothing.");
+        TypeElement owner = (TypeElement) method.getEnclosingElement();
+        if (method.getModifiers().contains(Modifier.STATIC)) return this.checkVisible(owner, method);
+        return this.checkInstantiable(owner, method);
+    }
+
+    private boolean checkInstantiable(TypeElement type, Element annotated) {
+        if (!this.checkVisible(type, annotated)) return false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements()))
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) return true;
+        return this.error(annotated, type.getSimpleName() + " needs a public no-args constructor for @BaclavaCommand.");
+    }
+
+    private boolean checkVisible(TypeElement type, Element annotated) {
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            TypeElement enclosing = (TypeElement) e;
+            if (!enclosing.getModifiers().contains(Modifier.PUBLIC)
+                    || (enclosing.getNestingKind() == NestingKind.MEMBER && !enclosing.getModifiers().contains(Modifier.STATIC)))
+                return this.error(annotated, type.getSimpleName() + " must be public, and static if nested, for @BaclavaCommand.");
+        }
+        return true;
+    }
+
+    private String invoker(ExecutableElement method, Map<TypeElement, String> instances) {
+        TypeElement owner = (TypeElement) method.getEnclosingElement();
+        String target = method.getModifiers().contains(Modifier.STATIC)
+                ? owner.getQualifiedName().toString()
+                : "this." + instances.computeIfAbsent(owner, o -> "instance" + instances.size());
+        if (method.getReturnType().getKind() != TypeKind.VOID) return target + "::" + method.getSimpleName();
+        return "e -> {\n            " + target + "." + method.getSimpleName() + "(e);\n            return null;\n        }";
+    }
+
+    private String description(String name, BaclavaCommand annotation) {
+        StringBuilder out = new StringBuilder("new CommandDescription(")
+                .append(this.literal(name)).append(", ")
+                .append(this.literal(annotation.category())).append(", ")
+                .append(this.literal(annotation.description())).append(", new String[]{");
+        String[] aliases = annotation.aliases();
+        for (int i = 0; i < aliases.length; i++) out.append(i == 0 ? "" : ", ").append(this.literal(aliases[i]));
+        out.append("}, ").append(this.literal(annotation.usage())).append(", ").append(this.literal(annotation.examples()));
+        for (String flag : annotation.flags()) out.append(", ").append(this.literal(flag));
+        return out.append(")").toString();
+    }
+
+    private String literal(String value) {
+        return value.isEmpty() ? "null" : this.elements.getConstantExpression(value);
+    }
+
+    private String defaultName(Element element) {
+        if (element.getKind() == ElementKind.METHOD) return element.getSimpleName().toString();
+        String name = element.getSimpleName().toString();
+        if (name.endsWith("Command") && name.length() > "Command".length())
+            name = name.substring(0, name.length() - "Command".length());
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private void write(List<Element> annotated, Map<TypeElement, String> instances, List<String> registrations) {
+        String registerer = this.processingEnv.getOptions().get(REGISTERER_OPTION);
+        if (registerer == null) {
+            String pkg = null;
+            for (Element element : annotated) {
+                String own = this.elements.getPackageOf(element).getQualifiedName().toString();
+                pkg = pkg == null ? own : commonPackage(pkg, own);
+            }
+            registerer = pkg == null || pkg.isEmpty() ? "BaclavaCommands" : pkg + ".BaclavaCommands";
+        }
+        int dot = registerer.lastIndexOf('.');
+        String pkg = dot < 0 ? null : registerer.substring(0, dot);
+        String simpleName = registerer.substring(dot + 1);
+
+        StringBuilder source = new StringBuilder();
+        if (pkg != null) source.append("package ").append(pkg).append(";\n\n");
+        source.append("import io.github.hotlava03.baclavaframework.CommandDescription;\n")
+                .append("import io.github.hotlava03.baclavaframework.CommandRegisterer;\n\n")
+                .append("/**\n * Generated by BaclavaCommandProcessor from the @BaclavaCommand annotations, do not edit.\n */\n")
+                .append("public class ").append(simpleName).append(" extends CommandRegisterer {\n");
+        for (Map.Entry<TypeElement, String> instance : instances.entrySet())
+            source.append("    private final ").append(instance.getKey().getQualifiedName()).append(' ')
+                    .append(instance.getValue()).append(" = new ").append(instance.getKey().getQualifiedName()).append("();\n");
+        if (!instances.isEmpty()) source.append('\n');
+        source.append("    @Override\n    public void handleRegistration() {\n");
+        for (String registration : registrations) source.append("        ").append(registration).append('\n');
+        source.append("    }\n}\n");
+
+        try (Writer writer = this.filer.createSourceFile(registerer, annotated.toArray(new Element[0])).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            this.messager.printMessage(Diagnostic.Kind.ERROR, "Could not generate " + registerer + ": " + e.getMessage());
+        }
+    }
+
+    private static String commonPackage(String a, String b) {
+        while (!(b.equals(a) || b.startsWith(a + "."))) {
+            int dot = a.lastIndexOf('.');
+            if (dot < 0) return "";
+            a = a.substring(0, dot);
+        }
+        return a;
+    }
+
+    private String describe(Element element) {
+        if (element.getKind() == ElementKind.METHOD)
+            return ((TypeElement) element.getEnclosingElement()).getQualifiedName() + "." + element.getSimpleName() + "()";
+        if (element instanceof TypeElement) return ((TypeElement) element).getQualifiedName().toString();
+        return element.toString();
+    }
+
+    private boolean error(Element element, String message) {
+        this.messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+}
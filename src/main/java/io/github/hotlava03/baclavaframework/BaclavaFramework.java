@@ -21,8 +21,11 @@ package io.github.hotlava03.baclavaframework;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.events.GenericEvent;
 import net.dv8tion.jda.api.events.ReadyEvent;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.function.Consumer;
 
 public interface BaclavaFramework {
@@ -33,6 +36,23 @@ public interface BaclavaFramework {
      */
     JDA getJDA();
 
+    /**
+     * Get the JDA instance of every shard run by this process, ordered by shard ID.
+     * Contains only {@link #getJDA()} when not sharding.
+     *
+     * @return The JDA instances.
+     *
+     * @see BaclavaFrameworkBuilder#setShards(int total)
+     */
+    List<JDA> getShards();
+
+    /**
+     * Get the connection status, gateway ping and event rate of every shard run by this process.
+     *
+     * @return The status of each shard, ordered by shard ID.
+     */
+    List<ShardStatus> getShardStatuses();
+
     /**
      * Get the bot prefix, set when building the framework.
      *
@@ -63,6 +83,70 @@ public interface BaclavaFramework {
      */
     CommandRegisterer getCommandRegisterer();
 
+    /**
+     * Get the framework metrics: command counts and latencies, gateway events and
+     * thread pool usage.
+     *
+     * @return The framework metrics.
+     *
+     * @see BaclavaFrameworkBuilder#setMetricsPort(int port)
+     */
+    FrameworkMetrics getMetrics();
+
+    /**
+     * Get the persistent usage stats, to find the most used commands and the most active guilds.
+     *
+     * @return The usage stats, or null if they weren't enabled.
+     *
+     * @see BaclavaFrameworkBuilder#setUsageStats(java.nio.file.Path directory)
+     */
+    @Nullable
+    UsageStatsStore getUsageStats();
+
+    /**
+     * Get the event waiter, to wait for reactions and follow-up messages in interactive commands.
+     *
+     * @return The event waiter.
+     */
+    EventWaiter getEventWaiter();
+
+    /**
+     * Get the scheduler, to run delayed and recurring tasks that survive restarts.
+     *
+     * @return The scheduler, or null if it wasn't enabled.
+     *
+     * @see BaclavaFrameworkBuilder#setScheduler(java.nio.file.Path directory)
+     */
+    @Nullable
+    TaskScheduler getScheduler();
+
+    /**
+     * Get the plugin manager, to list, load, unload and reload plugin jars at runtime.
+     *
+     * @return The plugin manager, or null if no plugin directory was set.
+     *
+     * @see BaclavaFrameworkBuilder#setPluginDirectory(java.nio.file.Path directory)
+     */
+    @Nullable
+    PluginManager getPluginManager();
+
+    /**
+     * Get the guild settings, to read and change the configuration of each guild.
+     *
+     * @return The settings, or null if they weren't enabled.
+     *
+     * @see BaclavaFrameworkBuilder#setSettingsDirectory(java.nio.file.Path directory)
+     */
+    @Nullable
+    SettingsStore getSettings();
+
+    /**
+     * Get the aggregator, to count or search the cached guilds and members of every shard in parallel.
+     *
+     * @return The cache aggregator.
+     */
+    CacheAggregator getAggregator();
+
     /**
      * Get the bot logger.
      *
@@ -76,7 +160,8 @@ public interface BaclavaFramework {
      * Create a listener for a ready event.
      * It is recommended to always use this in your bot.
      * <b>DO NOT</b> rely on line sequence as bot startup
-     * is asynchronous.
+     * is asynchronous. When sharding, the callback is called
+     * once for every shard.
      *
      * @param e The ready event callback.
      */
@@ -85,7 +170,8 @@ public interface BaclavaFramework {
     /**
      * Create a listener for any JDA {@link GenericEvent}.
      * Do not use this for commands. Command listeners
-     * are part of the framework.
+     * are part of the framework. When sharding, the listener
+     * is added to every shard.
      *
      * @param event Event {@link Class} object.
      * @param callback Callback for the listener.
@@ -96,4 +182,18 @@ public interface BaclavaFramework {
      * @see CommandRegisterer
      */
     <T extends GenericEvent> void on(Class<T> event, Consumer<? super T> callback);
+
+    /**
+     * Stop dispatching new commands, wait for the commands and replies in flight, write out the audit
+     * log, usage stats and scheduler journal, then disconnect every shard. Commands or replies still
+     * in flight at the timeout are abandoned and the shards are disconnected right away. Called
+     * by a JVM shutdown hook if not called before, and only runs once: later calls return the
+     * same report.
+     *
+     * @param timeout How long to wait for the commands and replies in flight.
+     * @return What was drained and what was abandoned.
+     *
+     * @see BaclavaFrameworkBuilder#setShutdownTimeout(Duration timeout)
+     */
+    ShutdownReport shutdown(Duration timeout);
 }
@@ -21,15 +21,70 @@ package io.github.hotlava03.baclavaframework;
 import club.minnced.jda.reactor.ReactiveEventManager;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.ReadyEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.MessageUpdateEvent;
+import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
+import net.dv8tion.jda.api.utils.SessionController;
+import net.dv8tion.jda.api.utils.SessionControllerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 
 import javax.security.auth.login.LoginException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class BaclavaFrameworkBuilder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BaclavaFrameworkBuilder.class);
+
     private String token;
     private CommandRegisterer registerer;
     private String prefix;
     private long ownerId = -1;
+    private int traceSampleRate = 1;
+    private InetSocketAddress metricsAddress;
+    private Path auditDirectory;
+    private Path usageStatsDirectory;
+    private Path schedulerDirectory;
+    private Path pluginDirectory;
+    private int warmupIterations;
+    private MemoryProfile memoryProfile = MemoryProfile.FULL;
+    private int auditCapacity;
+    private AuditOverflowPolicy auditPolicy;
+    private long auditMaxFileSize;
+    private int minShard;
+    private int maxShard;
+    private int shardTotal;
+    private ExecutorService commandExecutor;
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+    private boolean duplicateFilter = true;
+    private StateStore stateStore;
+    private int maxOutbound = 50;
+    private int maxOutboundQueued = 1000;
+    private SettingsLoader settingsLoader;
+    private Path settingsDirectory;
+    private long editWindowMillis;
+    private Path snapshotFile;
 
     /**
      * Create a new {@link BaclavaFrameworkBuilder} without setting anything.
@@ -73,37 +128,367 @@ public class BaclavaFrameworkBuilder {
      *
      * @return The built {@link BaclavaFramework}.
      * @throws LoginException When a LoginException occurs when building JDA.
-     * @throws IllegalStateException Whenever token and/or prefix and/or ownerId and/or registerer aren't set.
+     * @throws IllegalStateException Whenever token and/or prefix and/or ownerId and/or registerer aren't set,
+     *                               or the metrics server, audit log or usage stats can't be started.
      */
     public BaclavaFramework build() throws LoginException, IllegalStateException {
+        return this.build(null);
+    }
+
+    /**
+     * Build the client, running on the pools and commands of a host if not null.
+     */
+    BaclavaFramework build(BaclavaHost host) throws LoginException, IllegalStateException {
         if (this.token == null)
             throw new IllegalStateException("Please set the token before building the command client.");
+        CommandRegisterer registerer = host == null ? this.registerer : host.resolve(this.registerer);
+        this.checkSettings(registerer);
+
+        registerer.ensureRegistered();
+        FrameworkServices services = this.createServices(registerer,
+                host == null ? this.commandExecutor : host.getCommandExecutor());
+        List<Shard> shards;
+        try {
+            shards = this.connect(registerer, services, host);
+        } catch (LoginException | RuntimeException e) {
+            services.shutdownExecutors(System.nanoTime());
+            services.closeSinks(System.nanoTime());
+            throw e;
+        }
+
+        BaclavaFrameworkImpl builtClient = new BaclavaFrameworkImpl(shards, this.prefix, registerer, this.ownerId,
+                services);
+        builtClient.registerShutdownHook(this.shutdownTimeout);
+
+        builtClient.getLogger(this.getClass()).info("Successfully started Baclava Command Client v1.0.0.");
+
+        return builtClient;
+    }
+
+    private List<Shard> connect(CommandRegisterer registerer, FrameworkServices services, BaclavaHost host)
+            throws LoginException, IllegalStateException {
+        CommandHandler handler = new CommandHandler(this.prefix, registerer, this.ownerId, services);
+        if (this.warmupIterations > 0) {
+            long start = System.nanoTime();
+            long messages = new Warmup(this.prefix, registerer, this.ownerId).run(this.warmupIterations);
+            LOGGER.info("Warmed up with " + messages + " messages in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+        }
+        CacheSettings cache = new CacheSettings(this.memoryProfile, registerer.getCommandsAsList());
+        LOGGER.info(cache.describe());
+        if (!cache.unmet.isEmpty())
+            LOGGER.warn("The LIGHT memory profile ignores the cache requirements of " + String.join(", ", cache.unmet) + ".");
+        services.cache = cache;
+        if (services.plugins != null) services.plugins.setCacheSettings(cache);
+        List<Shard> shards = this.buildShards(handler, services, host, cache);
+        try {
+            services.metricsServer = this.startMetricsServer(services.metrics);
+        } catch (IllegalStateException e) {
+            for (Shard shard : shards) shard.jda.shutdownNow();
+            throw e;
+        }
+        return shards;
+    }
+
+    /**
+     * Build the client around an {@link OfflineGateway} instead of connecting to Discord.
+     * Useful to load test or debug commands without a token. The token and shards are ignored,
+     * but the prefix, the owner ID and the registerer must be set.
+     *
+     * @param gateway The gateway messages will be dispatched from.
+     * @return The built {@link BaclavaFramework}, whose JDA instance is stubbed.
+     * @throws IllegalStateException Whenever prefix and/or ownerId and/or registerer aren't set,
+     *                               or the metrics server, audit log or usage stats can't be started.
+     *
+     * @see ReplayLoadGenerator
+     */
+    public BaclavaFramework buildOffline(OfflineGateway gateway) throws IllegalStateException {
+        this.checkSettings(this.registerer);
+
+        this.registerer.ensureRegistered();
+        FrameworkServices services = this.createServices(this.registerer, this.commandExecutor);
+        CommandHandler handler = new CommandHandler(this.prefix, this.registerer, this.ownerId, services);
+        Shard shard = new Shard(0, 0, new ReactiveEventManager());
+        shard.jda = gateway.getJDA();
+        listen(shard, this.prefix, gateway.track(handler::acceptCall), gateway::drop, services);
+        gateway.attach(shard.manager);
+        try {
+            services.metricsServer = this.startMetricsServer(services.metrics);
+        } catch (IllegalStateException e) {
+            services.closeSinks(System.nanoTime());
+            throw e;
+        }
+
+        BaclavaFrameworkImpl builtClient = new BaclavaFrameworkImpl(Collections.singletonList(shard), this.prefix,
+                this.registerer, this.ownerId, services);
+        builtClient.registerShutdownHook(this.shutdownTimeout);
+
+        builtClient.getLogger(this.getClass()).info("Successfully started Baclava Command Client v1.0.0 in offline mode.");
+
+        return builtClient;
+    }
+
+    private void checkSettings(CommandRegisterer registerer) throws IllegalStateException {
         if (this.prefix == null)
             throw new IllegalStateException("The prefix must be set in order for commands to work.");
         if (this.ownerId == -1)
             throw new IllegalStateException("Please set the owner ID before building the command client.");
-        if (this.registerer == null)
+        if (registerer == null)
             throw new IllegalStateException("Please set the registerer before building the command client.");
+    }
 
-        ReactiveEventManager manager = new ReactiveEventManager();
-        this.registerer.handleRegistration();
-        CommandHandler handler = new CommandHandler(this.prefix, registerer, this.ownerId);
+    private FrameworkServices createServices(CommandRegisterer registerer, ExecutorService commandExecutor)
+            throws IllegalStateException {
+        FrameworkServices services = new FrameworkServices();
+        services.tracer = new CommandTracer(this.traceSampleRate);
+        services.audit = this.createAuditLog(services.metrics);
+        services.usageStats = this.createUsageStats(registerer, services.metrics);
+        services.commandExecutor = commandExecutor;
+        services.waiter = new EventWaiter(commandExecutor);
+        services.waiter.registerMetrics(services.metrics);
+        services.scheduler = this.createScheduler(commandExecutor, services.metrics);
+        services.plugins = this.createPluginManager(registerer, services.metrics);
+        services.quotas = new QuotaCache(this.stateStore == null ? new InMemoryStateStore() : this.stateStore);
+        services.quotas.registerMetrics(services.metrics);
+        services.outbound = new OutboundLimiter(this.maxOutbound, this.maxOutboundQueued);
+        services.outbound.registerMetrics(services.metrics);
+        services.settings = this.createSettings(services);
+        if (this.editWindowMillis > 0) {
+            services.replies = new ReplyTracker(10000, this.editWindowMillis, TimeUnit.MILLISECONDS);
+            services.replies.registerMetrics(services.metrics);
+        }
+        services.metrics.registerPool("command", commandExecutor, null);
+        services.inFlight.registerMetrics(services.metrics);
+        services.snapshotFile = this.snapshotFile;
+        if (this.snapshotFile != null) {
+            StartupSnapshot snapshot = StartupSnapshot.read(this.snapshotFile);
+            if (snapshot != null) snapshot.restore(registerer, services);
+        }
+        return services;
+    }
 
-        manager.on(MessageReceivedEvent.class)
-                .filter(e -> !(e.getAuthor().isBot() || e.getAuthor().isFake()))
-                .filter(e -> e.getMessage().getContentRaw().startsWith(prefix))
-                .subscribe(handler::acceptCall);
+    /**
+     * Connect every shard of this process. They share the handler, the metrics and, when there is
+     * more than one, the session controller (which spaces out logins) and the rate limit and gateway pools.
+     * On a host, the pools and HTTP client of the host are used instead.
+     */
+    private List<Shard> buildShards(CommandHandler handler, FrameworkServices services, BaclavaHost host,
+                                    CacheSettings cache) throws LoginException {
+        int first = this.shardTotal == 0 ? 0 : this.minShard;
+        int last = this.shardTotal == 0 ? 0 : this.maxShard;
+        SessionController controller = new SessionControllerAdapter();
+        ScheduledExecutorService rateLimitPool = null;
+        ScheduledExecutorService gatewayPool = null;
+        if (host != null) {
+            rateLimitPool = host.getRateLimitPool();
+            gatewayPool = host.getGatewayPool();
+        } else if (last > first) {
+            rateLimitPool = Executors.newScheduledThreadPool(Math.min(last - first + 1, 8) + 1,
+                    daemonThreads("baclava-rate-limit"));
+            gatewayPool = Executors.newScheduledThreadPool(1, daemonThreads("baclava-gateway"));
+            services.ownedExecutors.add(rateLimitPool);
+            services.ownedExecutors.add(gatewayPool);
+        }
 
-        JDA jda = new JDABuilder()
-                .setToken(this.token)
-                .setEventManager(manager)
-                .build();
+        List<Shard> shards = new ArrayList<>(last - first + 1);
+        for (int id = first; id <= last; id++) {
+            Shard shard = new Shard(id, this.shardTotal, new ReactiveEventManager());
+            if (this.duplicateFilter) {
+                shard.duplicates = new DuplicateFilter(5, TimeUnit.MINUTES);
+                shard.duplicates.registerMetrics(services.metrics, shard.getLabels());
+            }
+            listen(shard, this.prefix, handler::acceptCall, null, services);
+            JDABuilder builder = new JDABuilder()
+                    .setToken(this.token)
+                    .setEventManager(shard.manager)
+                    .setSessionController(controller);
+            cache.apply(builder);
+            if (this.shardTotal != 0) builder.useSharding(id, this.shardTotal);
+            if (rateLimitPool != null) {
+                builder.setRateLimitPool(rateLimitPool, false)
+                        .setGatewayPool(gatewayPool, false);
+            }
+            if (host != null) {
+                builder.setCallbackPool(host.getCallbackPool(), false)
+                        .setHttpClient(host.getHttpClient());
+            }
+            try {
+                shard.jda = builder.build();
+            } catch (LoginException | RuntimeException e) {
+                for (Shard built : shards) built.jda.shutdownNow();
+                throw e;
+            }
+            services.metrics.registerShard(shard);
+            shard.manager.on(ReadyEvent.class)
+                    .next()
+                    .subscribe(e -> {
+                        long members = 0;
+                        for (Guild guild : e.getJDA().getGuilds()) members += guild.getMemberCount();
+                        LOGGER.info("Shard " + shard.id + " is ready with " + e.getJDA().getGuilds().size() + " guilds and "
+                                + members + " members, the " + cache.profile + " memory profile should cache about "
+                                + cache.estimateMegabytes(members) + "MB of them.");
+                    });
+            shards.add(shard);
+        }
+        return shards;
+    }
 
-        BaclavaFramework builtClient = new BaclavaFrameworkImpl(jda, manager, this.prefix, this.registerer, this.ownerId);
+    static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 
-        builtClient.getLogger(this.getClass()).info("Successfully started Baclava Command Client v1.0.0.");
+    private UsageStatsStore createUsageStats(CommandRegisterer registerer, FrameworkMetrics metrics)
+            throws IllegalStateException {
+        if (this.usageStatsDirectory == null) return null;
+        UsageStatsStore usageStats;
+        try {
+            usageStats = new UsageStatsStore(this.usageStatsDirectory, registerer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the usage stats in " + this.usageStatsDirectory + ".", e);
+        }
+        usageStats.registerMetrics(metrics);
+        return usageStats;
+    }
 
-        return builtClient;
+    private SettingsStore createSettings(FrameworkServices services) throws IllegalStateException {
+        SettingsLoader loader = this.settingsLoader;
+        if (loader == null && this.settingsDirectory != null) {
+            try {
+                loader = new FileSettingsLoader(this.settingsDirectory);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create the settings directory " + this.settingsDirectory + ".", e);
+            }
+        }
+        if (loader == null) return null;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                daemonThreads("baclava-settings"));
+        executor.allowCoreThreadTimeOut(true);
+        services.ownedExecutors.add(executor);
+        SettingsStore settings = new SettingsStore(loader, executor, 10_000, 5, 30, TimeUnit.MINUTES);
+        settings.registerMetrics(services.metrics);
+        return settings;
+    }
+
+    private PluginManager createPluginManager(CommandRegisterer registerer, FrameworkMetrics metrics)
+            throws IllegalStateException {
+        if (this.pluginDirectory == null) return null;
+        PluginManager plugins = new PluginManager(this.pluginDirectory, registerer);
+        try {
+            plugins.loadAll();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not list the plugins in " + this.pluginDirectory + ".", e);
+        }
+        plugins.registerMetrics(metrics);
+        return plugins;
+    }
+
+    private TaskScheduler createScheduler(ExecutorService commandExecutor, FrameworkMetrics metrics)
+            throws IllegalStateException {
+        if (this.schedulerDirectory == null) return null;
+        TaskScheduler scheduler;
+        try {
+            scheduler = new TaskScheduler(this.schedulerDirectory, commandExecutor);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the task journal in " + this.schedulerDirectory + ".", e);
+        }
+        scheduler.registerMetrics(metrics);
+        return scheduler;
+    }
+
+    private AuditLog createAuditLog(FrameworkMetrics metrics) throws IllegalStateException {
+        if (this.auditDirectory == null) return null;
+        AuditLog audit;
+        try {
+            audit = new AuditLog(this.auditDirectory, this.auditCapacity, this.auditPolicy, this.auditMaxFileSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create the audit log directory " + this.auditDirectory + ".", e);
+        }
+        audit.registerMetrics(metrics);
+        return audit;
+    }
+
+    /**
+     * @param dropped Told about the messages dropped before reaching the handler, may be null.
+     */
+    static void listen(Shard shard, String prefix, Consumer<MessageReceivedEvent> handler,
+                       Consumer<MessageReceivedEvent> dropped, FrameworkServices services) {
+        shard.manager.on(GenericEvent.class)
+                .subscribe(e -> {
+                    services.metrics.recordEvent(e);
+                    shard.events.record();
+                });
+        shard.manager.on(MessageReactionAddEvent.class)
+                .subscribe(services.waiter::onReaction);
+        Flux<MessageReceivedEvent> messages = shard.manager.on(MessageReceivedEvent.class)
+                .filter(counting(e -> !(e.getAuthor().isBot() || e.getAuthor().isFake()), dropped));
+        if (shard.duplicates != null) {
+            DuplicateFilter duplicates = shard.duplicates;
+            messages = messages.filter(counting(e -> duplicates.firstSeen(e.getMessageIdLong()), dropped));
+        }
+        messages = messages.doOnNext(services.waiter::onMessage)
+                .filter(counting(e -> e.getMessage().getContentRaw().startsWith(prefix), dropped));
+        ExecutorService executor = services.commandExecutor;
+        InFlightTracker inFlight = services.inFlight;
+        Consumer<MessageReceivedEvent> dispatch;
+        if (executor == null) {
+            dispatch = e -> {
+                if (inFlight.admitCommand()) inFlight.runCommand(() -> handler.accept(e));
+                else if (dropped != null) dropped.accept(e);
+            };
+        } else {
+            dispatch = e -> {
+                if (!inFlight.admitCommand()) {
+                    if (dropped != null) dropped.accept(e);
+                    return;
+                }
+                try {
+                    executor.execute(() -> inFlight.runCommand(() -> handler.accept(e)));
+                } catch (RejectedExecutionException ex) {
+                    inFlight.finishCommand();
+                    LOGGER.warn("Dropped a message from " + e.getAuthor().getId() + ", the command executor is saturated.");
+                    if (dropped != null) dropped.accept(e);
+                }
+            };
+        }
+        messages.subscribe(dispatch);
+        if (services.replies == null) return;
+
+        // Edits skip the waiter and the duplicate filter: they share the ID of the original message.
+        ReplyTracker replies = services.replies;
+        shard.manager.on(MessageUpdateEvent.class)
+                .filter(e -> !(e.getAuthor().isBot() || e.getAuthor().isFake()))
+                .filter(e -> replies.isRecent(e.getMessageIdLong()))
+                .filter(e -> e.getMessage().getContentRaw().startsWith(prefix))
+                .filter(e -> {
+                    OffsetDateTime edited = e.getMessage().getTimeEdited();
+                    return edited != null && replies.claimEdit(e.getMessageIdLong(), edited.toInstant().toEpochMilli());
+                })
+                .subscribe(e -> dispatch.accept(new EditedMessageEvent(e)));
+    }
+
+    private static <T> Predicate<T> counting(Predicate<T> filter, Consumer<T> dropped) {
+        if (dropped == null) return filter;
+        return e -> {
+            if (filter.test(e)) return true;
+            dropped.accept(e);
+            return false;
+        };
+    }
+
+    private MetricsServer startMetricsServer(FrameworkMetrics metrics) throws IllegalStateException {
+        if (this.metricsAddress == null) return null;
+        try {
+            MetricsServer server = new MetricsServer(this.metricsAddress, metrics);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start the metrics server on " + this.metricsAddress + ".", e);
+        }
     }
 
     /**
@@ -141,4 +526,325 @@ public class BaclavaFrameworkBuilder {
         this.prefix = prefix;
         return this;
     }
+
+    /**
+     * Command invocations and replies are emitted as Java Flight Recorder events
+     * (category "Baclava Framework"), which cost next to nothing while no recording
+     * is running. By default every invocation is traced while recording, use this
+     * to only trace one out of every {@code rate} invocations instead. The replies of a
+     * traced invocation are traced with it.
+     *
+     * @param rate Trace one out of every rate invocations. Defaults to 1.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If rate is lower than 1.
+     */
+    public BaclavaFrameworkBuilder setTraceSampleRate(int rate) {
+        if (rate < 1) throw new IllegalArgumentException("The trace sample rate must be at least 1.");
+        this.traceSampleRate = rate;
+        return this;
+    }
+
+    /**
+     * Serve the framework metrics in Prometheus text format on {@code http://0.0.0.0:port/metrics}.
+     * Disabled by default.
+     *
+     * @param port The port to listen on.
+     * @return The current instance for chained calls.
+     *
+     * @see BaclavaFramework#getMetrics()
+     */
+    public BaclavaFrameworkBuilder setMetricsPort(int port) {
+        return this.setMetricsAddress(new InetSocketAddress(port));
+    }
+
+    /**
+     * Serve the framework metrics in Prometheus text format on {@code /metrics} at the given address,
+     * for example to only listen on localhost. Disabled by default.
+     *
+     * @param address The address to listen on.
+     * @return The current instance for chained calls.
+     *
+     * @see BaclavaFramework#getMetrics()
+     */
+    public BaclavaFrameworkBuilder setMetricsAddress(InetSocketAddress address) {
+        this.metricsAddress = address;
+        return this;
+    }
+
+    /**
+     * Keep an audit trail of every command invocation (who, where, which command, arguments,
+     * outcome and latency) in rolling files of 64MB. Records are buffered and written by a
+     * dedicated thread, up to 8192 records are buffered before new ones get dropped.
+     *
+     * @param directory The directory to write the audit files to.
+     * @return The current instance for chained calls.
+     *
+     * @see BaclavaFrameworkBuilder#setAuditLog(Path directory, int capacity, AuditOverflowPolicy policy, long maxFileSize)
+     */
+    public BaclavaFrameworkBuilder setAuditLog(Path directory) {
+        return this.setAuditLog(directory, 8192, AuditOverflowPolicy.DROP, 64L * 1024 * 1024);
+    }
+
+    /**
+     * Keep an audit trail of every command invocation (who, where, which command, arguments,
+     * outcome and latency) in rolling files. Records are buffered and written by a dedicated thread.
+     *
+     * @param directory The directory to write the audit files to.
+     * @param capacity The amount of records buffered before the policy applies.
+     * @param policy Whether to drop records or block commands when the buffer is full.
+     * @param maxFileSize The size in bytes after which a new file is started.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If capacity or maxFileSize aren't positive.
+     */
+    public BaclavaFrameworkBuilder setAuditLog(Path directory, int capacity, AuditOverflowPolicy policy, long maxFileSize) {
+        if (capacity < 1 || maxFileSize < 1)
+            throw new IllegalArgumentException("The audit log capacity and file size must be positive.");
+        this.auditDirectory = directory;
+        this.auditCapacity = capacity;
+        this.auditPolicy = policy;
+        this.auditMaxFileSize = maxFileSize;
+        return this;
+    }
+
+    /**
+     * Keep per-command, per-guild usage counters (invocations, errors, latency) in memory-mapped
+     * files, so they survive restarts. Query them through {@link BaclavaFramework#getUsageStats()}.
+     *
+     * @param directory The directory to keep the usage stats files in.
+     * @return The current instance for chained calls.
+     */
+    public BaclavaFrameworkBuilder setUsageStats(Path directory) {
+        this.usageStatsDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Enable the {@link TaskScheduler}, for delayed and recurring tasks kept in a journal
+     * so they survive restarts. Disabled by default.
+     *
+     * @param directory The directory to keep the task journal in.
+     * @return The current instance for chained calls.
+     *
+     * @see BaclavaFramework#getScheduler()
+     */
+    public BaclavaFrameworkBuilder setScheduler(Path directory) {
+        this.schedulerDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Load command plugins from the jars in a directory when building. Each plugin gets its own
+     * class loader, and its command classes are only loaded on their first invocation.
+     * Disabled by default.
+     *
+     * @param directory The directory containing the plugin jars.
+     * @return The current instance for chained calls.
+     *
+     * @see PluginManager
+     */
+    public BaclavaFrameworkBuilder setPluginDirectory(Path directory) {
+        this.pluginDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Before connecting, send synthetic messages through the whole dispatch path against a stubbed
+     * JDA, so it is compiled before real traffic arrives. Commands take part if they opted in with
+     * {@link Command#setWarmupSamples(String...)}. Nothing is sent to Discord or recorded in the
+     * metrics, audit log or usage stats. Disabled by default, a few thousand iterations is usually enough.
+     *
+     * @param iterations How many times to send every sample message, 0 to disable.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If iterations is negative.
+     */
+    public BaclavaFrameworkBuilder setWarmup(int iterations) {
+        if (iterations < 0) throw new IllegalArgumentException("The warmup iterations can't be negative.");
+        this.warmupIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Choose how much of Discord JDA caches. {@link MemoryProfile#COMMANDS_ONLY} derives the
+     * cache flags, member chunking and guild subscriptions from what the registered commands
+     * declare they need, {@link MemoryProfile#LIGHT} disables them all. The chosen settings and
+     * their estimated heap cost are logged. Defaults to {@link MemoryProfile#FULL}.
+     *
+     * @param profile The memory profile.
+     * @return The current instance for chained calls.
+     *
+     * @see Command#setCacheRequirements(CacheRequirement...)
+     */
+    public BaclavaFrameworkBuilder setMemoryProfile(MemoryProfile profile) {
+        this.memoryProfile = profile;
+        return this;
+    }
+
+    /**
+     * Run every shard, from 0 to total - 1, in this process. All shards share the same
+     * commands, metrics and thread pools. Not sharding by default.
+     *
+     * @param total The total amount of shards of the bot.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If total is lower than 1.
+     *
+     * @see BaclavaFramework#getShards()
+     */
+    public BaclavaFrameworkBuilder setShards(int total) {
+        return this.setShards(0, total - 1, total);
+    }
+
+    /**
+     * Run a range of shards in this process, to split a bot across processes. All shards in the
+     * range share the same commands, metrics and thread pools.
+     *
+     * @param minShard The first shard ID to run, inclusive.
+     * @param maxShard The last shard ID to run, inclusive.
+     * @param total The total amount of shards of the bot.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If the range isn't within 0 and total - 1.
+     */
+    public BaclavaFrameworkBuilder setShards(int minShard, int maxShard, int total) {
+        if (total < 1 || minShard < 0 || minShard > maxShard || maxShard >= total)
+            throw new IllegalArgumentException("The shard range must be within 0 and total - 1.");
+        this.minShard = minShard;
+        this.maxShard = maxShard;
+        this.shardTotal = total;
+        return this;
+    }
+
+    /**
+     * Run commands on the given executor instead of the thread the event was received on,
+     * so a slow command doesn't hold up the events of its shard. Messages arriving while the
+     * executor rejects tasks are dropped. The executor is shared by all shards and isn't shut
+     * down by the framework.
+     *
+     * @param executor The executor to run commands on.
+     * @return The current instance for chained calls.
+     */
+    public BaclavaFrameworkBuilder setCommandExecutor(ExecutorService executor) {
+        this.commandExecutor = executor;
+        return this;
+    }
+
+    /**
+     * How long the JVM shutdown hook waits for in-flight commands and replies before closing
+     * the connections. Defaults to 10 seconds.
+     *
+     * @param timeout The drain timeout.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If timeout is negative.
+     *
+     * @see BaclavaFramework#shutdown(Duration timeout)
+     */
+    public BaclavaFrameworkBuilder setShutdownTimeout(Duration timeout) {
+        if (timeout.isNegative()) throw new IllegalArgumentException("The shutdown timeout cannot be negative.");
+        this.shutdownTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Drop messages the gateway delivers twice after a session resumes or reconnects, before
+     * they reach the event waiter or the commands. Enabled by default, costs about 450KB per shard.
+     *
+     * @param enabled Whether to drop duplicate messages.
+     * @return The current instance for chained calls.
+     */
+    public BaclavaFrameworkBuilder setDuplicateFilter(boolean enabled) {
+        this.duplicateFilter = enabled;
+        return this;
+    }
+
+    /**
+     * Count cooldowns and rate limits in the given store instead of in this process only, so they
+     * hold across processes sharing it. The store is closed when the framework shuts down.
+     *
+     * @param store The store, for example a {@link RemoteStateStore}.
+     * @return The current instance for chained calls.
+     *
+     * @see Command#setRateLimit(int invocations, long period, TimeUnit unit)
+     */
+    public BaclavaFrameworkBuilder setStateStore(StateStore store) {
+        this.stateStore = store;
+        return this;
+    }
+
+    /**
+     * Bound the replies waiting on Discord. The framework adapts how many replies it lets wait at
+     * once to how fast Discord answers, up to maxConcurrent, and queues the rest up to maxQueued.
+     * Past that, and for {@link CommandEvent#replyBestEffort(Object msg)} as soon as replies are
+     * held back, replies are dropped. Defaults to 50 and 1000.
+     *
+     * @param maxConcurrent The most replies waiting on Discord at once.
+     * @param maxQueued The most replies held back.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If maxConcurrent isn't positive or maxQueued is negative.
+     */
+    public BaclavaFrameworkBuilder setOutboundLimit(int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1 || maxQueued < 0)
+            throw new IllegalArgumentException("The outbound limit needs at least one reply and a non negative queue.");
+        this.maxOutbound = maxConcurrent;
+        this.maxOutboundQueued = maxQueued;
+        return this;
+    }
+
+    /**
+     * Enable guild settings, kept in a properties file per guild in the given directory. The 10000
+     * most recently used guilds are cached and reloaded in the background every 5 minutes.
+     *
+     * @param directory The directory to keep the settings in.
+     * @return The current instance for chained calls.
+     *
+     * @see CommandEvent#getSettings()
+     */
+    public BaclavaFrameworkBuilder setSettingsDirectory(Path directory) {
+        this.settingsDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Run commands again when their message is edited within the given window after it was sent,
+     * editing the first reply in place instead of posting a new one. Useful to fix a typo in a
+     * command without leaving the wrong answer behind. Up to 10000 command messages are tracked.
+     * Disabled by default.
+     *
+     * @param window How long after a command was sent its edits are handled, 0 to disable.
+     * @param unit The window unit.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If window is negative.
+     *
+     * @see CommandEvent#isEdit()
+     */
+    public BaclavaFrameworkBuilder setEditDispatch(long window, TimeUnit unit) {
+        if (window < 0) throw new IllegalArgumentException("The edit window cannot be negative.");
+        this.editWindowMillis = unit.toMillis(window);
+        return this;
+    }
+
+    /**
+     * Enable guild settings, kept by the given loader, for example in a database. Takes precedence
+     * over {@link #setSettingsDirectory(Path directory)}.
+     *
+     * @param loader Where the settings are kept.
+     * @return The current instance for chained calls.
+     *
+     * @see CommandEvent#getSettings()
+     */
+    public BaclavaFrameworkBuilder setSettingsLoader(SettingsLoader loader) {
+        this.settingsLoader = loader;
+        return this;
+    }
+
+    /**
+     * Keep the warm state of the framework in the given file across restarts: the cached guild
+     * settings, the learned outbound reply limit and the plugin commands that were used. Written
+     * at shutdown and read back when building, so a restarted bot serves at full speed sooner.
+     * Plugin commands are only preloaded if the registered commands didn't change in between.
+     *
+     * @param file The snapshot file.
+     * @return The current instance for chained calls.
+     */
+    public BaclavaFrameworkBuilder setSnapshotFile(Path file) {
+        this.snapshotFile = file;
+        return this;
+    }
 }
@@ -18,33 +18,60 @@
 
 package io.github.hotlava03.baclavaframework;
 
-import club.minnced.jda.reactor.ReactiveEventManager;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.events.GenericEvent;
 import net.dv8tion.jda.api.events.ReadyEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 class BaclavaFrameworkImpl implements BaclavaFramework {
-    private final JDA jda;
-    private final ReactiveEventManager manager;
+    private static final Logger LOGGER = LoggerFactory.getLogger(BaclavaFrameworkImpl.class);
+
+    private final List<Shard> shards;
+    private final List<JDA> jdas;
     private final String prefix;
     private final CommandRegisterer registerer;
     private final long ownerId;
+    private final FrameworkServices services;
+    private Thread shutdownHook;
+    private ShutdownReport shutdownReport;
 
-    BaclavaFrameworkImpl(JDA jda, ReactiveEventManager manager, String prefix, CommandRegisterer registerer, long ownerId) {
-        this.jda = jda;
-        this.manager = manager;
+    BaclavaFrameworkImpl(List<Shard> shards, String prefix, CommandRegisterer registerer, long ownerId,
+                         FrameworkServices services) {
+        this.shards = shards;
+        List<JDA> jdas = new ArrayList<>(shards.size());
+        for (Shard shard : shards) jdas.add(shard.jda);
+        this.jdas = Collections.unmodifiableList(jdas);
         this.prefix = prefix;
         this.registerer = registerer;
         this.ownerId = ownerId;
+        this.services = services;
+        services.framework = this;
+        services.aggregator = new CacheAggregator(this.jdas, services.cache);
     }
 
     @Override
     public JDA getJDA() {
-        return this.jda;
+        return this.jdas.get(0);
+    }
+
+    @Override
+    public List<JDA> getShards() {
+        return this.jdas;
+    }
+
+    @Override
+    public List<ShardStatus> getShardStatuses() {
+        List<ShardStatus> statuses = new ArrayList<>(this.shards.size());
+        for (Shard shard : this.shards) statuses.add(shard.getStatus());
+        return statuses;
     }
 
     @Override
@@ -62,6 +89,41 @@ class BaclavaFrameworkImpl implements BaclavaFramework {
         return this.registerer;
     }
 
+    @Override
+    public FrameworkMetrics getMetrics() {
+        return this.services.metrics;
+    }
+
+    @Override
+    public UsageStatsStore getUsageStats() {
+        return this.services.usageStats;
+    }
+
+    @Override
+    public EventWaiter getEventWaiter() {
+        return this.services.waiter;
+    }
+
+    @Override
+    public TaskScheduler getScheduler() {
+        return this.services.scheduler;
+    }
+
+    @Override
+    public PluginManager getPluginManager() {
+        return this.services.plugins;
+    }
+
+    @Override
+    public SettingsStore getSettings() {
+        return this.services.settings;
+    }
+
+    @Override
+    public CacheAggregator getAggregator() {
+        return this.services.aggregator;
+    }
+
     @Override
     public <T> Logger getLogger(Class<T> main) {
         return LoggerFactory.getLogger(main);
@@ -69,15 +131,73 @@ class BaclavaFrameworkImpl implements BaclavaFramework {
 
     @Override
     public void onReady(Consumer<ReadyEvent> e) {
-        this.manager.on(ReadyEvent.class)
-                .next()
-                .subscribe(e);
+        for (Shard shard : this.shards)
+            shard.manager.on(ReadyEvent.class)
+                    .next()
+                    .subscribe(e);
     }
 
     @Override
     public <T extends GenericEvent> void on(Class<T> event, Consumer<? super T> callback) {
-        this.manager.on(event)
-                .next()
-                .subscribe(callback);
+        for (Shard shard : this.shards)
+            shard.manager.on(event)
+                    .next()
+                    .subscribe(callback);
+    }
+
+    @Override
+    public synchronized ShutdownReport shutdown(Duration timeout) {
+        if (this.shutdownReport != null) return this.shutdownReport;
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        InFlightTracker inFlight = this.services.inFlight;
+        inFlight.stopAdmitting();
+        // A command calling this, like an owner shutdown command, can't finish before it returns.
+        int own = inFlight.getCommandsOnThread();
+        long commands = inFlight.getCommands() - own;
+        long repliesFinished = inFlight.getRepliesFinished();
+        LOGGER.info("Shutting down, draining " + commands + " commands and " + inFlight.getReplies() + " replies.");
+
+        boolean idle = inFlight.awaitIdle(deadline);
+        long abandonedCommands = Math.max(inFlight.getCommands() - own, 0);
+        long abandonedReplies = inFlight.getReplies();
+        int waits = this.services.waiter == null ? 0 : this.services.waiter.getPending();
+        if (this.services.snapshotFile != null) {
+            try {
+                StartupSnapshot.write(this.services.snapshotFile, this.registerer, this.services);
+            } catch (IOException e) {
+                LOGGER.error("Could not write the snapshot " + this.services.snapshotFile + ".", e);
+            }
+        }
+        // Past the deadline, don't let JDA work through its request queue either.
+        for (Shard shard : this.shards) {
+            if (idle) shard.jda.shutdown();
+            else shard.jda.shutdownNow();
+        }
+        // Abandoned commands may still record to the sinks until their executors are stopped.
+        this.services.shutdownExecutors(deadline);
+        boolean flushed = this.services.closeSinks(deadline);
+
+        if (this.shutdownHook != null && Thread.currentThread() != this.shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+            } catch (IllegalStateException ignored) {
+                // The JVM is already shutting down.
+            }
+        }
+        this.shutdownReport = new ShutdownReport(Math.max(commands - abandonedCommands, 0), abandonedCommands,
+                inFlight.getRepliesFinished() - repliesFinished, abandonedReplies, inFlight.getRefused(), waits,
+                flushed, System.nanoTime() - start);
+        if (this.shutdownReport.isClean()) LOGGER.info("Shut down cleanly: " + this.shutdownReport + ".");
+        else LOGGER.warn("Shut down with work abandoned: " + this.shutdownReport + ".");
+        return this.shutdownReport;
+    }
+
+    /**
+     * Drain and shut down when the JVM exits, unless {@link #shutdown(Duration timeout)} was called first.
+     */
+    void registerShutdownHook(Duration timeout) {
+        this.shutdownHook = new Thread(() -> this.shutdown(timeout), "baclava-shutdown");
+        Runtime.getRuntime().addShutdownHook(this.shutdownHook);
     }
 }
@@ -0,0 +1,210 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import okhttp3.OkHttpClient;
+
+import javax.security.auth.login.LoginException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several bots in one JVM over the same thread pools, HTTP client and commands.
+ * Commands are registered once in the shared registerer, and a bot may still register
+ * its own commands to add to or override the shared ones:
+ * <pre>{@code
+ * BaclavaHost host = new BaclavaHost(new SharedCommands());
+ * host.add(new BaclavaFrameworkBuilder(tokenA).setPrefix("!").setOwnerId(owner));
+ * host.add(new BaclavaFrameworkBuilder(tokenB, new ExtraCommands(), "?").setOwnerId(owner));
+ * }</pre>
+ * Each bot keeps its own event manager, metrics and sinks, but no thread pool of its own.
+ */
+public class BaclavaHost {
+    private final CommandRegisterer registerer;
+    private final List<BaclavaFramework> bots = new ArrayList<>();
+    private int commandThreads = Runtime.getRuntime().availableProcessors();
+    private int commandQueueCapacity = 1024;
+    private int jdaThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private ExecutorService commandExecutor;
+    private ScheduledExecutorService rateLimitPool;
+    private ScheduledExecutorService gatewayPool;
+    private ExecutorService callbackPool;
+    private OkHttpClient httpClient;
+    private boolean shutdown;
+
+    /**
+     * @param registerer The commands shared by every bot.
+     */
+    public BaclavaHost(CommandRegisterer registerer) {
+        this.registerer = registerer;
+    }
+
+    /**
+     * Set the threads running commands for all bots. Defaults to one thread per core and
+     * 1024 queued messages, beyond which messages are dropped.
+     *
+     * @param threads The amount of threads.
+     * @param queueCapacity The amount of messages waiting for a thread.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If threads or queueCapacity aren't positive.
+     * @throws IllegalStateException If a bot was already added.
+     */
+    public synchronized BaclavaHost setCommandThreads(int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("The thread count and queue capacity must be positive.");
+        this.checkNotStarted();
+        this.commandThreads = threads;
+        this.commandQueueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Set the threads JDA uses for rate limits and callbacks, for all bots.
+     * Defaults to half a thread per core, at least 2.
+     *
+     * @param threads The amount of threads of each pool.
+     * @return The current instance for chained calls.
+     * @throws IllegalArgumentException If threads isn't positive.
+     * @throws IllegalStateException If a bot was already added.
+     */
+    public synchronized BaclavaHost setJDAThreads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("The thread count must be positive.");
+        this.checkNotStarted();
+        this.jdaThreads = threads;
+        return this;
+    }
+
+    /**
+     * Build a bot on this host. Its registerer, if any, inherits the shared commands,
+     * otherwise it uses the shared registerer directly. A command executor set on the
+     * builder is replaced by the shared one.
+     *
+     * @param builder The bot settings.
+     * @return The built bot.
+     * @throws LoginException When a LoginException occurs when building JDA.
+     * @throws IllegalStateException If the builder is incomplete or the host was shut down.
+     */
+    public synchronized BaclavaFramework add(BaclavaFrameworkBuilder builder) throws LoginException, IllegalStateException {
+        if (this.shutdown) throw new IllegalStateException("The host was shut down.");
+        if (this.commandExecutor == null) this.start();
+        BaclavaFramework bot = builder.build(this);
+        this.bots.add(bot);
+        return bot;
+    }
+
+    /**
+     * @return The bots added so far, in order.
+     */
+    public synchronized List<BaclavaFramework> getBots() {
+        return Collections.unmodifiableList(new ArrayList<>(this.bots));
+    }
+
+    /**
+     * @return The registerer shared by every bot.
+     */
+    public CommandRegisterer getCommandRegisterer() {
+        return this.registerer;
+    }
+
+    /**
+     * Disconnect every bot and stop the shared threads, waiting up to 10 seconds for the
+     * commands and replies in flight.
+     */
+    public void shutdown() {
+        this.shutdown(Duration.ofSeconds(10));
+    }
+
+    /**
+     * Drain and disconnect every bot, then stop the shared threads.
+     *
+     * @param timeout How long to wait for the commands and replies in flight, shared by all bots.
+     * @return The report of each bot, in order.
+     *
+     * @see BaclavaFramework#shutdown(Duration timeout)
+     */
+    public synchronized List<ShutdownReport> shutdown(Duration timeout) {
+        if (this.shutdown) return Collections.emptyList();
+        this.shutdown = true;
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<ShutdownReport> reports = new ArrayList<>(this.bots.size());
+        for (BaclavaFramework bot : this.bots)
+            reports.add(bot.shutdown(Duration.ofNanos(Math.max(deadline - System.nanoTime(), 0))));
+        if (this.commandExecutor == null) return reports;
+        this.commandExecutor.shutdown();
+        this.rateLimitPool.shutdown();
+        this.gatewayPool.shutdown();
+        this.callbackPool.shutdown();
+        return reports;
+    }
+
+    /**
+     * Resolve the registerer a bot runs with.
+     */
+    CommandRegisterer resolve(CommandRegisterer own) {
+        this.registerer.ensureRegistered();
+        if (own == null || own == this.registerer) return this.registerer;
+        own.setParent(this.registerer);
+        return own;
+    }
+
+    ExecutorService getCommandExecutor() {
+        return this.commandExecutor;
+    }
+
+    ScheduledExecutorService getRateLimitPool() {
+        return this.rateLimitPool;
+    }
+
+    ScheduledExecutorService getGatewayPool() {
+        return this.gatewayPool;
+    }
+
+    ExecutorService getCallbackPool() {
+        return this.callbackPool;
+    }
+
+    OkHttpClient getHttpClient() {
+        return this.httpClient;
+    }
+
+    private void start() {
+        this.commandExecutor = new ThreadPoolExecutor(this.commandThreads, this.commandThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.commandQueueCapacity), BaclavaFrameworkBuilder.daemonThreads("baclava-host-command"));
+        this.rateLimitPool = Executors.newScheduledThreadPool(this.jdaThreads,
+                BaclavaFrameworkBuilder.daemonThreads("baclava-host-rate-limit"));
+        this.gatewayPool = Executors.newScheduledThreadPool(1, BaclavaFrameworkBuilder.daemonThreads("baclava-host-gateway"));
+        this.callbackPool = Executors.newFixedThreadPool(this.jdaThreads,
+                BaclavaFrameworkBuilder.daemonThreads("baclava-host-callback"));
+        // One connection pool and dispatcher for every bot instead of one each.
+        this.httpClient = new OkHttpClient();
+    }
+
+    private void checkNotStarted() {
+        if (this.commandExecutor != null)
+            throw new IllegalStateException("The host threads must be set before adding bots.");
+    }
+}
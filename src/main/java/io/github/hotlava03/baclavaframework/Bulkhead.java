@@ -0,0 +1,118 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many invocations of a command run at once. Invocations over the limit wait in
+ * a bounded queue, without holding a thread: whoever finishes an invocation runs the next
+ * queued one. Invocations over the queue size are rejected.
+ */
+class Bulkhead {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Bulkhead.class);
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    Bulkhead(int maxConcurrent, int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Run the invocation now on this thread, or queue it.
+     *
+     * @return False if it was rejected.
+     */
+    boolean submit(Runnable invocation) {
+        if (this.tryAcquire()) {
+            this.runAndDrain(invocation);
+            return true;
+        }
+        if (this.queued.incrementAndGet() > this.maxQueued) {
+            this.queued.decrementAndGet();
+            return false;
+        }
+        this.queue.add(invocation);
+        // A running invocation may have finished before the queue was filled, and missed it.
+        if (this.tryAcquire()) {
+            Runnable next = this.poll();
+            if (next == null) this.active.decrementAndGet();
+            else this.runAndDrain(next);
+        }
+        return true;
+    }
+
+    int getActive() {
+        return this.active.get();
+    }
+
+    int getQueued() {
+        return this.queued.get();
+    }
+
+    private void runAndDrain(Runnable invocation) {
+        Error error = null;
+        while (invocation != null) {
+            try {
+                invocation.run();
+            } catch (RuntimeException e) {
+                // Keep draining, or the queued invocations would never run and the slot would leak.
+                LOGGER.error("A command invocation threw an exception in its bulkhead.", e);
+            } catch (Error e) {
+                // Same for errors, which are rethrown once the slot is released.
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            }
+            invocation = this.poll();
+            if (invocation == null) this.active.decrementAndGet();
+        }
+        // An invocation may have been queued between the last poll and the release.
+        if (!this.queue.isEmpty() && this.tryAcquire()) {
+            Runnable next = this.poll();
+            if (next == null) this.active.decrementAndGet();
+            else this.runAndDrain(next);
+        }
+        if (error != null) throw error;
+    }
+
+    private Runnable poll() {
+        Runnable next = this.queue.poll();
+        if (next != null) this.queued.decrementAndGet();
+        return next;
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = this.active.get();
+            if (current >= this.maxConcurrent) return false;
+        } while (!this.active.compareAndSet(current, current + 1));
+        return true;
+    }
+}
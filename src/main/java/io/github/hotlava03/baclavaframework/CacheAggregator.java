@@ -0,0 +1,220 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.Collector;
+
+/**
+ * Runs aggregations over the guilds and members cached by every shard in parallel, on a
+ * fork-join pool with a thread per core, instead of iterating them on the command thread:
+ * <pre>{@code
+ * e.getAggregator().countMembers(member -> member.getUser().isBot())
+ *         .toFuture()
+ *         .thenAccept(bots -> e.reply(bots + " bots"));
+ * }</pre>
+ * The guild list is snapshotted when the aggregation starts, and the members of each guild when
+ * it is processed. Guilds are processed in batches, so cancelling stops the aggregation quickly.
+ * The pool is shared by every framework of the JVM, and its threads exit when idle.<br><br>
+ *
+ * Only cached members are aggregated. Under the LIGHT and COMMANDS_ONLY memory profiles, unless a
+ * command requires {@link CacheRequirement#MEMBERS}, that's only the members seen in events, so
+ * member aggregations undercount; a warning is logged the first time.
+ *
+ * @see BaclavaFramework#getAggregator()
+ */
+public class CacheAggregator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheAggregator.class);
+    private static final int GUILD_BATCH = 256;
+    private static final int MEMBER_BATCH = 8;
+
+    private final List<JDA> shards;
+    private final MemoryProfile partialMembers;
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    /**
+     * @param cache The caches of the shards, or null if they hold everything.
+     */
+    CacheAggregator(List<JDA> shards, CacheSettings cache) {
+        this.shards = shards;
+        this.partialMembers = cache == null || cache.enabled.contains(CacheRequirement.MEMBERS) ? null : cache.profile;
+    }
+
+    /**
+     * @param name The thread name prefix.
+     * @return A pool with a daemon thread per core.
+     */
+    private static ForkJoinPool createPool(String name) {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name + "-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Aggregate every cached guild.
+     *
+     * @param collector How to aggregate them, for example {@link java.util.stream.Collectors#summingLong}.
+     * @param <R> The result type.
+     * @return The running aggregation.
+     */
+    public <R> Aggregation<R> guilds(Collector<? super Guild, ?, R> collector) {
+        return this.start(collector, GUILD_BATCH, false);
+    }
+
+    /**
+     * Aggregate every cached member of every guild. A user in several guilds is seen once per guild.
+     *
+     * @param collector How to aggregate them.
+     * @param <R> The result type.
+     * @return The running aggregation.
+     */
+    public <R> Aggregation<R> members(Collector<? super Member, ?, R> collector) {
+        if (this.partialMembers != null && this.warned.compareAndSet(false, true))
+            LOGGER.warn("The " + this.partialMembers + " memory profile only caches the members seen in events,"
+                    + " member aggregations undercount.");
+        return this.start(collector, MEMBER_BATCH, true);
+    }
+
+    /**
+     * @param filter The members to count.
+     * @return The running count of cached members matching the filter.
+     */
+    public Aggregation<Long> countMembers(Predicate<? super Member> filter) {
+        return this.members(Collector.of(() -> new long[1], (count, member) -> {
+            if (filter.test(member)) count[0]++;
+        }, (left, right) -> {
+            left[0] += right[0];
+            return left;
+        }, count -> count[0]));
+    }
+
+    /**
+     * @param filter The guilds to find.
+     * @return The running search of the cached guilds matching the filter.
+     */
+    public Aggregation<List<Guild>> searchGuilds(Predicate<? super Guild> filter) {
+        return this.guilds(Collector.<Guild, List<Guild>>of(ArrayList::new, (found, guild) -> {
+            if (filter.test(guild)) found.add(guild);
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T, A, R> Aggregation<R> start(Collector<? super T, A, R> collector, int batch, boolean members) {
+        Aggregation<R> aggregation = new Aggregation<>();
+        SharedPool.POOL.execute(() -> {
+            try {
+                List<Guild> guilds = new ArrayList<>();
+                for (JDA jda : this.shards) guilds.addAll(jda.getGuildCache().asList());
+                long total = guilds.size();
+                if (members) {
+                    total = 0;
+                    for (Guild guild : guilds) total += guild.getMemberCache().size();
+                }
+                aggregation.total = total;
+                A container = new Batch<>(guilds, 0, guilds.size(), batch, members, collector, aggregation).invoke();
+                aggregation.future.complete(collector.finisher().apply(container));
+            } catch (CancellationException e) {
+                // Cancelled through the aggregation, the future is already done.
+            } catch (RuntimeException e) {
+                aggregation.future.completeExceptionally(e);
+            }
+        });
+        return aggregation;
+    }
+
+    private static class Batch<T, A> extends RecursiveTask<A> {
+        private final List<Guild> guilds;
+        private final int from;
+        private final int to;
+        private final int batch;
+        private final boolean members;
+        private final Collector<? super T, A, ?> collector;
+        private final Aggregation<?> aggregation;
+
+        Batch(List<Guild> guilds, int from, int to, int batch, boolean members, Collector<? super T, A, ?> collector,
+              Aggregation<?> aggregation) {
+            this.guilds = guilds;
+            this.from = from;
+            this.to = to;
+            this.batch = batch;
+            this.members = members;
+            this.collector = collector;
+            this.aggregation = aggregation;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected A compute() {
+            if (this.aggregation.isCancelled()) throw new CancellationException();
+            if (this.to - this.from > this.batch) {
+                int middle = (this.from + this.to) >>> 1;
+                Batch<T, A> left = new Batch<>(this.guilds, this.from, middle, this.batch, this.members, this.collector,
+                        this.aggregation);
+                left.fork();
+                A right = new Batch<>(this.guilds, middle, this.to, this.batch, this.members, this.collector,
+                        this.aggregation).compute();
+                BinaryOperator<A> combiner = this.collector.combiner();
+                return combiner.apply(left.join(), right);
+            }
+
+            A container = this.collector.supplier().get();
+            BiConsumer<A, ? super T> accumulator = this.collector.accumulator();
+            for (int i = this.from; i < this.to; i++) {
+                Guild guild = this.guilds.get(i);
+                if (!this.members) {
+                    ((BiConsumer<A, Object>) accumulator).accept(container, guild);
+                    this.aggregation.processed.increment();
+                    continue;
+                }
+                if (this.aggregation.isCancelled()) throw new CancellationException();
+                List<Member> members = guild.getMemberCache().asList();
+                for (Member member : members) ((BiConsumer<A, Object>) accumulator).accept(container, member);
+                this.aggregation.processed.add(members.size());
+            }
+            return container;
+        }
+    }
+
+    /**
+     * Created on first use, so frameworks which never aggregate don't create it.
+     */
+    private static final class SharedPool {
+        static final ForkJoinPool POOL = createPool("baclava-aggregate");
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+/**
+ * JDA caches a command relies on. With {@link MemoryProfile#COMMANDS_ONLY}, only
+ * the caches required by at least one command are enabled.
+ *
+ * @see Command#setCacheRequirements(CacheRequirement...)
+ */
+public enum CacheRequirement {
+    /**
+     * Every member of every guild, for example to look members up by name.
+     * Without it, only members seen in events and the bot itself are cached.
+     */
+    MEMBERS,
+    /**
+     * Online status and activities of members.
+     */
+    PRESENCES,
+    /**
+     * Which voice channel members are in, for music commands for example.
+     */
+    VOICE_STATES,
+    /**
+     * Custom emotes of guilds.
+     */
+    EMOTES
+}
@@ -0,0 +1,107 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import net.dv8tion.jda.api.JDABuilder;
+import net.dv8tion.jda.api.utils.ChunkingFilter;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The JDA cache configuration derived from a {@link MemoryProfile} and the requirements of
+ * the registered commands, with a rough estimate of what it costs per guild member.
+ */
+class CacheSettings {
+    // Rough retained sizes of the cached entities on a 64-bit JVM, per guild member.
+    private static final int MEMBER_BYTES = 650;
+    private static final int PRESENCE_BYTES = 240;
+    private static final int VOICE_STATE_BYTES = 160;
+    // Per guild member, assuming about one emote per 20 members.
+    private static final int EMOTE_BYTES = 15;
+    // Members cached anyway through events when not chunking, as a fraction.
+    private static final double SEEN_MEMBERS = 0.1;
+
+    final MemoryProfile profile;
+    final Set<CacheRequirement> enabled;
+    final List<String> unmet = new ArrayList<>();
+
+    CacheSettings(MemoryProfile profile, Collection<Command> commands) {
+        this.profile = profile;
+        if (profile == MemoryProfile.FULL) {
+            this.enabled = EnumSet.allOf(CacheRequirement.class);
+            return;
+        }
+        Set<CacheRequirement> required = EnumSet.noneOf(CacheRequirement.class);
+        for (Command command : commands) {
+            for (CacheRequirement requirement : command.getCacheRequirements()) {
+                required.add(requirement);
+                if (profile == MemoryProfile.LIGHT) this.unmet.add(command.getName() + " (" + requirement + ")");
+            }
+        }
+        this.enabled = profile == MemoryProfile.LIGHT ? EnumSet.noneOf(CacheRequirement.class) : required;
+    }
+
+    void apply(JDABuilder builder) {
+        if (this.profile == MemoryProfile.FULL) return;
+        EnumSet<CacheFlag> disabled = EnumSet.noneOf(CacheFlag.class);
+        if (!this.enabled.contains(CacheRequirement.PRESENCES)) {
+            disabled.add(CacheFlag.ACTIVITY);
+            disabled.add(CacheFlag.CLIENT_STATUS);
+        }
+        if (!this.enabled.contains(CacheRequirement.VOICE_STATES)) disabled.add(CacheFlag.VOICE_STATE);
+        if (!this.enabled.contains(CacheRequirement.EMOTES)) disabled.add(CacheFlag.EMOTE);
+        boolean members = this.enabled.contains(CacheRequirement.MEMBERS);
+        builder.setDisabledCacheFlags(disabled)
+                .setChunkingFilter(members ? ChunkingFilter.ALL : ChunkingFilter.NONE)
+                // Without subscriptions Discord sends no presence or typing events, and no member updates.
+                .setGuildSubscriptionsEnabled(members || this.enabled.contains(CacheRequirement.PRESENCES));
+    }
+
+    /**
+     * @return The estimated cache size per guild member, in bytes.
+     */
+    long estimateBytesPerMember() {
+        double bytes = MEMBER_BYTES * (this.enabled.contains(CacheRequirement.MEMBERS) ? 1 : SEEN_MEMBERS);
+        if (this.enabled.contains(CacheRequirement.PRESENCES)) bytes += PRESENCE_BYTES;
+        // Only members in a voice channel have a voice state worth counting, about one in twenty.
+        if (this.enabled.contains(CacheRequirement.VOICE_STATES)) bytes += VOICE_STATE_BYTES / 20.0;
+        if (this.enabled.contains(CacheRequirement.EMOTES)) bytes += EMOTE_BYTES;
+        return Math.round(bytes);
+    }
+
+    /**
+     * @param members The total amount of members of the bot's guilds.
+     * @return The estimated cache size, in megabytes.
+     */
+    long estimateMegabytes(long members) {
+        return members * this.estimateBytesPerMember() / (1024 * 1024);
+    }
+
+    String describe() {
+        long full = new CacheSettings(MemoryProfile.FULL, new ArrayList<>()).estimateBytesPerMember();
+        return "Memory profile " + this.profile + " caches " + (this.enabled.isEmpty() ? "no optional data" : this.enabled)
+                + ", about " + this.estimateBytesPerMember() + " bytes per guild member (" + full
+                + " with FULL), " + this.estimateMegabytes(1_000_000) + "MB per million members.";
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops invoking a command whose recent invocations mostly failed or were too slow.
+ * Closed, it counts failures over the last {@value #WINDOW} invocations and opens past the
+ * failure rate. Open, it rejects everything for the open duration, then lets a single trial
+ * invocation through (half open), which closes it on success or opens it again on failure.
+ */
+class CircuitBreaker {
+    static final int CLOSED = 0;
+    static final int HALF_OPEN = 1;
+    static final int OPEN = 2;
+    private static final int WINDOW = 20;
+
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final long openNanos;
+    // Outcomes of the last invocations, one bit each, 1 for a failure.
+    private long window;
+    private int calls;
+    private int state = CLOSED;
+    private long openedAt;
+    private boolean trialRunning;
+
+    CircuitBreaker(double failureRate, long slowCall, long open, TimeUnit unit) {
+        this.failureRate = failureRate;
+        this.slowCallNanos = unit.toNanos(slowCall);
+        this.openNanos = unit.toNanos(open);
+    }
+
+    /**
+     * @return True if the invocation may run.
+     */
+    synchronized boolean allow() {
+        if (this.state == CLOSED) return true;
+        if (this.state == OPEN) {
+            if (System.nanoTime() - this.openedAt < this.openNanos) return false;
+            this.state = HALF_OPEN;
+        }
+        if (this.trialRunning) return false;
+        this.trialRunning = true;
+        return true;
+    }
+
+    synchronized void record(boolean error, long nanos) {
+        boolean failure = error || nanos > this.slowCallNanos;
+        if (this.state == HALF_OPEN) {
+            this.trialRunning = false;
+            if (failure) this.open();
+            else this.close();
+            return;
+        }
+        if (this.state == OPEN) return;
+
+        this.window = (this.window << 1) | (failure ? 1 : 0);
+        if (this.calls < WINDOW) this.calls++;
+        long failures = Long.bitCount(this.window & ((1L << WINDOW) - 1));
+        if (this.calls == WINDOW && failures >= this.failureRate * WINDOW) this.open();
+    }
+
+    synchronized int getState() {
+        // Report an open breaker whose duration is over as half open, it will let the next call through.
+        if (this.state == OPEN && System.nanoTime() - this.openedAt >= this.openNanos) return HALF_OPEN;
+        return this.state;
+    }
+
+    private void open() {
+        this.state = OPEN;
+        this.openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        this.state = CLOSED;
+        this.window = 0;
+        this.calls = 0;
+    }
+}
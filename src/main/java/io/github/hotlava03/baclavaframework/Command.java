@@ -18,6 +18,8 @@
 
 package io.github.hotlava03.baclavaframework;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Must be extended if you use a dedicated class for a command.
  * Required by {@link CommandRegisterer#registerCommand(String name, Command command)}.
@@ -25,16 +27,34 @@ package io.github.hotlava03.baclavaframework;
  * @see CommandRegisterer
  */
 public abstract class Command {
+    String name;
+    // The registerer indexing the aliases, told when they change.
+    volatile CommandRegisterer registerer;
     private String category;
     private String[] aliases = {};
     private String usage;
     private String examples;
     private String[] flags = {};
+    private String[] warmupSamples = {};
+    private CacheRequirement[] cacheRequirements = {};
+    private String fallbackReply = "This command is unavailable right now, please try again later.";
+    private String rateLimitReply = "You're doing that too often, try again in %d seconds.";
+    Bulkhead bulkhead;
+    CircuitBreaker circuitBreaker;
+    long rateLimit;
+    long rateLimitWindow;
 
     String execute(CommandEvent e) {
         return this.onCommand(e);
     }
 
+    /**
+     * @return The command holding the bulkhead, circuit breaker and rate limit settings of this one.
+     */
+    Command resolve() {
+        return this;
+    }
+
     /**
      * Called whenever the command is executed.
      *
@@ -43,6 +63,13 @@ public abstract class Command {
      */
     protected abstract String onCommand(CommandEvent e);
 
+    /**
+     * @return The name this command was registered with.
+     */
+    public String getName() {
+        return name;
+    }
+
     /**
      * @return The category.
      */
@@ -70,11 +97,14 @@ public abstract class Command {
     }
 
     /**
-     * @param aliases The command aliases.
+     * @param aliases The command aliases. They may change after registration.
      * @return The current command object for chained calls.
      */
     protected Command setAliases(String... aliases) {
+        String[] previous = this.aliases;
         this.aliases = aliases;
+        CommandRegisterer registerer = this.registerer;
+        if (registerer != null) registerer.reindexAliases(this, previous);
         return this;
     }
 
@@ -139,4 +169,174 @@ public abstract class Command {
             if (flag.equalsIgnoreCase(name)) return true;
         return false;
     }
+
+    /**
+     * Limit how many invocations of this command run at once, so a slow command can't take every
+     * thread. Invocations over the limit wait in a queue of the given size, without holding a
+     * thread, and are answered with the fallback reply when it is full.
+     *
+     * @param maxConcurrent The maximum amount of invocations running at once.
+     * @param maxQueued The maximum amount of invocations waiting.
+     * @return The current command object for chained calls.
+     * @throws IllegalArgumentException If maxConcurrent isn't positive or maxQueued is negative.
+     *
+     * @see Command#setFallbackReply(String reply)
+     */
+    protected Command setBulkhead(int maxConcurrent, int maxQueued) {
+        if (maxConcurrent < 1 || maxQueued < 0)
+            throw new IllegalArgumentException("The bulkhead needs at least one concurrent invocation and a non negative queue.");
+        this.bulkhead = new Bulkhead(maxConcurrent, maxQueued);
+        return this;
+    }
+
+    /**
+     * Stop invoking this command for a while once too many of its last 20 invocations threw or
+     * were slower than the slow call threshold, for example when the API it relies on is down.
+     * Meanwhile, invocations are answered with the fallback reply. After the open duration,
+     * one invocation goes through to test whether the command recovered.
+     *
+     * @param failureRate The fraction of failed invocations, between 0 and 1, that opens the breaker.
+     * @param slowCall The duration after which an invocation counts as failed.
+     * @param openDuration How long to reject invocations once open.
+     * @param unit The unit of slowCall and openDuration.
+     * @return The current command object for chained calls.
+     * @throws IllegalArgumentException If failureRate isn't between 0 and 1.
+     *
+     * @see Command#setFallbackReply(String reply)
+     */
+    protected Command setCircuitBreaker(double failureRate, long slowCall, long openDuration, TimeUnit unit) {
+        if (failureRate <= 0 || failureRate > 1)
+            throw new IllegalArgumentException("The failure rate must be between 0 and 1.");
+        this.circuitBreaker = new CircuitBreaker(failureRate, slowCall, openDuration, unit);
+        return this;
+    }
+
+    /**
+     * @return The reply sent when the bulkhead or circuit breaker rejects an invocation.
+     */
+    public String getFallbackReply() {
+        return fallbackReply;
+    }
+
+    /**
+     * @param reply The reply sent when the bulkhead or circuit breaker rejects an invocation,
+     *              or null to not reply.
+     * @return The current command object for chained calls.
+     */
+    protected Command setFallbackReply(String reply) {
+        this.fallbackReply = reply;
+        return this;
+    }
+
+    /**
+     * Let each user run this command once per duration. Counted in the {@link StateStore} of the
+     * framework, so the cooldown holds across processes sharing a store. The bot owner isn't limited.
+     *
+     * @param duration The cooldown duration.
+     * @param unit The duration unit.
+     * @return The current command object for chained calls.
+     * @throws IllegalArgumentException If duration is shorter than a millisecond.
+     *
+     * @see Command#setRateLimitReply(String reply)
+     */
+    protected Command setCooldown(long duration, TimeUnit unit) {
+        return this.setRateLimit(1, duration, unit);
+    }
+
+    /**
+     * Let each user run this command at most the given amount of times per period, the period
+     * starting with their first invocation. Counted in the {@link StateStore} of the framework,
+     * so the limit holds across processes sharing a store. The bot owner isn't limited.
+     *
+     * @param invocations The invocations allowed per period.
+     * @param period The period length.
+     * @param unit The period unit.
+     * @return The current command object for chained calls.
+     * @throws IllegalArgumentException If invocations isn't positive or period is shorter than a millisecond.
+     *
+     * @see Command#setRateLimitReply(String reply)
+     */
+    protected Command setRateLimit(int invocations, long period, TimeUnit unit) {
+        if (invocations < 1 || unit.toMillis(period) < 1)
+            throw new IllegalArgumentException("The rate limit needs at least one invocation per millisecond or more.");
+        this.rateLimit = invocations;
+        this.rateLimitWindow = unit.toMillis(period);
+        return this;
+    }
+
+    /**
+     * @return The invocations allowed per user and period, 0 if unlimited.
+     */
+    public long getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * @param unit The unit to get the period in.
+     * @return The rate limit period, 0 if unlimited.
+     */
+    public long getRateLimitPeriod(TimeUnit unit) {
+        return unit.convert(this.rateLimitWindow, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The reply sent when a user is over the cooldown or rate limit.
+     */
+    public String getRateLimitReply() {
+        return rateLimitReply;
+    }
+
+    /**
+     * @param reply The reply sent when a user is over the cooldown or rate limit, or null to not reply.
+     *              {@code %d} is replaced by the seconds left.
+     * @return The current command object for chained calls.
+     */
+    protected Command setRateLimitReply(String reply) {
+        this.rateLimitReply = reply;
+        return this;
+    }
+
+    /**
+     * @return The JDA caches this command relies on.
+     */
+    public CacheRequirement[] getCacheRequirements() {
+        return cacheRequirements;
+    }
+
+    /**
+     * Declare the JDA caches this command relies on, for example {@link CacheRequirement#VOICE_STATES}
+     * for a music command. With {@link MemoryProfile#COMMANDS_ONLY}, caches no command requires are disabled.
+     *
+     * @param requirements The required caches.
+     * @return The current command object for chained calls.
+     *
+     * @see BaclavaFrameworkBuilder#setMemoryProfile(MemoryProfile profile)
+     */
+    protected Command setCacheRequirements(CacheRequirement... requirements) {
+        this.cacheRequirements = requirements;
+        return this;
+    }
+
+    /**
+     * @return The arguments this command is invoked with during the startup warmup.
+     */
+    public String[] getWarmupSamples() {
+        return warmupSamples;
+    }
+
+    /**
+     * Opt in to the startup warmup: the command is invoked with each of these arguments
+     * (everything after the command name) against a stubbed JDA before the bot connects,
+     * so its code is compiled before real traffic arrives. Only use for commands without
+     * side effects outside of Discord, and that don't need a real guild or member.
+     *
+     * @param arguments The sample arguments, "" to invoke without arguments.
+     * @return The current command object for chained calls.
+     *
+     * @see BaclavaFrameworkBuilder#setWarmup(int iterations)
+     */
+    protected Command setWarmupSamples(String... arguments) {
+        this.warmupSamples = arguments;
+        return this;
+    }
 }
@@ -21,11 +21,16 @@ package io.github.hotlava03.baclavaframework;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.LongFunction;
 
 /**
  * Command event object used on command.
@@ -35,6 +40,7 @@ import java.util.function.Consumer;
  */
 public class CommandEvent {
     private final String content;
+    private final CommandHandler handler;
     private MessageReceivedEvent event;
     private String command;
     private MessageChannel channel;
@@ -44,8 +50,12 @@ public class CommandEvent {
     private JDA jda;
     private String[] args;
     private String[] flags;
+    private final boolean edit;
+    private final AtomicBoolean replied = new AtomicBoolean();
+    // Set when the invocation is traced, its replies are traced too.
+    InvocationTrace trace;
 
-    CommandEvent(MessageReceivedEvent e, String command, String content) {
+    CommandEvent(MessageReceivedEvent e, String command, String content, CommandHandler handler) {
         this.event = e;
         this.command = command;
         this.channel = e.getChannel();
@@ -54,6 +64,8 @@ public class CommandEvent {
         this.member = e.getMember();
         this.jda = e.getJDA();
         this.content = content;
+        this.handler = handler;
+        this.edit = e instanceof EditedMessageEvent;
         this.findArgsAndFlags();
     }
 
@@ -78,7 +90,8 @@ public class CommandEvent {
      */
     public void reply(Object msg) {
         if (msg == null) throw new IllegalArgumentException("The message cannot be null!");
-        this.getChannel().sendMessage(msg.toString()).queue();
+        this.send(target -> target == 0 ? this.channel.sendMessage(msg.toString())
+                : this.channel.editMessageById(target, msg.toString()), null, false);
     }
 
     /**
@@ -92,7 +105,8 @@ public class CommandEvent {
      */
     public void reply(Object msg, Consumer<? super Message> andThen) {
         if (msg == null || andThen == null) throw new IllegalArgumentException("The message and/or callback cannot be null!");
-        this.getChannel().sendMessage(msg.toString()).queue(andThen);
+        this.send(target -> target == 0 ? this.channel.sendMessage(msg.toString())
+                : this.channel.editMessageById(target, msg.toString()), andThen, false);
     }
 
     /**
@@ -106,7 +120,8 @@ public class CommandEvent {
      */
     public void reply(MessageEmbed embed) {
         if (embed == null) throw new IllegalArgumentException("The embed cannot be null!");
-        this.getChannel().sendMessage(embed).queue();
+        this.send(target -> target == 0 ? this.channel.sendMessage(embed)
+                : this.channel.editMessageById(target, embed), null, false);
     }
 
     /**
@@ -121,7 +136,8 @@ public class CommandEvent {
      * @see net.dv8tion.jda.api.EmbedBuilder
      */
     public void reply(MessageEmbed embed, Consumer<? super Message> andThen) {
-        this.getChannel().sendMessage(embed).queue(andThen);
+        this.send(target -> target == 0 ? this.channel.sendMessage(embed)
+                : this.channel.editMessageById(target, embed), andThen, false);
     }
 
     /**
@@ -134,7 +150,8 @@ public class CommandEvent {
      */
     public void reply(Message message) {
         if (message == null) throw new IllegalArgumentException("Message cannot be null!");
-        this.getChannel().sendMessage(message).queue();
+        this.send(target -> target == 0 ? this.channel.sendMessage(message)
+                : this.channel.editMessageById(target, message), null, false);
     }
 
     /**
@@ -148,7 +165,21 @@ public class CommandEvent {
      * @see net.dv8tion.jda.api.MessageBuilder
      */
     public void reply(Message message, Consumer<? super Message> andThen) {
-        this.getChannel().sendMessage(message).queue(andThen);
+        this.send(target -> target == 0 ? this.channel.sendMessage(message)
+                : this.channel.editMessageById(target, message), andThen, false);
+    }
+
+    /**
+     * Send a message that can be skipped, like a progress update or a "please wait". When Discord is
+     * slow and the framework holds replies back, it is dropped instead of waiting for its turn.
+     *
+     * @param msg The message to reply with.
+     * @return False if the message was dropped.
+     * @throws IllegalArgumentException If msg is null.
+     */
+    public boolean replyBestEffort(Object msg) {
+        if (msg == null) throw new IllegalArgumentException("The message cannot be null!");
+        return this.send(target -> this.channel.sendMessage(msg.toString()), null, true);
     }
 
     /**
@@ -162,6 +193,69 @@ public class CommandEvent {
         return this.guild != null;
     }
 
+    /**
+     * Send a reply, or edit the one the command answered with before when this is the first reply
+     * of an edited command.
+     *
+     * @param action Creates the request, sending a new message when given 0 and editing the given
+     *               message otherwise.
+     */
+    private boolean send(LongFunction<MessageAction> action, Consumer<? super Message> andThen, boolean bestEffort) {
+        ReplyTracker replies = this.handler.getServices().replies;
+        // Only the first reply is tracked, best effort replies are never worth editing.
+        boolean first = replies != null && !bestEffort && this.replied.compareAndSet(false, true);
+        long target = first && this.edit ? replies.getReply(this.event.getMessageIdLong()) : 0;
+        return this.send(action, target, first, andThen, bestEffort);
+    }
+
+    private boolean send(LongFunction<MessageAction> action, long target, boolean first,
+                         Consumer<? super Message> andThen, boolean bestEffort) {
+        InvocationTrace.Reply trace = this.handler.getTracer().beginReply(this);
+        FrameworkServices services = this.handler.getServices();
+        InFlightTracker inFlight = services.inFlight;
+        OutboundLimiter limiter = services.outbound;
+        ReplyTracker replies = services.replies;
+        inFlight.startReply();
+        Consumer<OutboundLimiter.Permit> queue = permit -> {
+            long start = System.nanoTime();
+            try {
+                action.apply(target).queue(message -> {
+                    if (permit != null) permit.release(System.nanoTime() - start, false);
+                    if (first) replies.setReply(this.event.getMessageIdLong(), message.getIdLong());
+                    if (target != 0) replies.recordEdited();
+                    inFlight.finishReply();
+                    if (trace != null) trace.finish(true);
+                    if (andThen != null) andThen.accept(message);
+                }, failure -> {
+                    boolean serverError = !(failure instanceof ErrorResponseException)
+                            || ((ErrorResponseException) failure).isServerError();
+                    if (permit != null) permit.release(System.nanoTime() - start, serverError);
+                    inFlight.finishReply();
+                    if (trace != null) trace.finish(false);
+                    if (target != 0 && !serverError) {
+                        // The earlier reply is gone or can't be edited anymore, post a new one instead.
+                        replies.setReply(this.event.getMessageIdLong(), 0);
+                        this.send(action, 0, true, andThen, false);
+                        return;
+                    }
+                    RestAction.getDefaultFailure().accept(failure);
+                });
+            } catch (RuntimeException e) {
+                if (permit != null) permit.cancel();
+                inFlight.finishReply();
+                throw e;
+            }
+        };
+        if (limiter == null) {
+            queue.accept(null);
+            return true;
+        }
+        if (limiter.submit(this.channel.getIdLong(), queue, bestEffort)) return true;
+        inFlight.finishReply();
+        if (trace != null) trace.finish(false);
+        return false;
+    }
+
     private void findArgsAndFlags() {
         if (this.content.isEmpty()) {
             this.args = new String[]{};
@@ -183,6 +277,13 @@ public class CommandEvent {
 
     // Getters and setters
 
+    /**
+     * @return Everything after the command name, unparsed.
+     */
+    String getContent() {
+        return content;
+    }
+
     /**
      * @return The command arguments.
      */
@@ -197,6 +298,16 @@ public class CommandEvent {
         return event;
     }
 
+    /**
+     * @return True if the command runs again because its message was edited. Its first reply
+     *         then edits the earlier one instead of posting a new message.
+     *
+     * @see BaclavaFrameworkBuilder#setEditDispatch(long window, java.util.concurrent.TimeUnit unit)
+     */
+    public boolean isEdit() {
+        return edit;
+    }
+
     /**
      * @return The original {@link Message}.
      */
@@ -242,6 +353,54 @@ public class CommandEvent {
         return member;
     }
 
+    /**
+     * @return The framework that dispatched this command.
+     */
+    public BaclavaFramework getFramework() {
+        return this.handler.getServices().framework;
+    }
+
+    /**
+     * Shortcut for {@link BaclavaFramework#getEventWaiter()}.
+     *
+     * @return The event waiter, to wait for reactions to and replies after this command.
+     */
+    public EventWaiter getEventWaiter() {
+        return this.handler.getServices().waiter;
+    }
+
+    /**
+     * Shortcut for {@link BaclavaFramework#getScheduler()}.
+     *
+     * @return The scheduler, or null if it wasn't enabled.
+     */
+    @Nullable
+    public TaskScheduler getScheduler() {
+        return this.handler.getServices().scheduler;
+    }
+
+    /**
+     * Shortcut for {@link BaclavaFramework#getAggregator()}, for commands going through every guild or member.
+     *
+     * @return The cache aggregator.
+     */
+    public CacheAggregator getAggregator() {
+        return this.handler.getServices().aggregator;
+    }
+
+    /**
+     * Get the settings of the guild the command was run in. Cached, so cheap enough for every invocation.
+     *
+     * @return The guild settings, or null in direct messages or if settings weren't enabled.
+     *
+     * @see BaclavaFrameworkBuilder#setSettingsDirectory(java.nio.file.Path directory)
+     */
+    @Nullable
+    public GuildSettings getSettings() {
+        SettingsStore settings = this.handler.getServices().settings;
+        return settings == null || !this.hasGuild() ? null : settings.get(this.guild.getIdLong());
+    }
+
     /**
      * @return The original {@link JDA} instance.
      */
@@ -19,28 +19,220 @@
 package io.github.hotlava03.baclavaframework;
 
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class CommandHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandHandler.class);
+
     private final String prefix;
     private final CommandRegisterer registerer;
     private final long ownerId;
+    private final CommandTracer tracer;
+    private final FrameworkMetrics metrics;
+    private final AuditLog audit;
+    private final UsageStatsStore usageStats;
+    private final FrameworkServices services;
+    private final Set<String> guarded = ConcurrentHashMap.newKeySet();
+    private boolean skipGuards;
 
-    CommandHandler(String prefix, CommandRegisterer registerer, long ownerId) {
+    CommandHandler(String prefix, CommandRegisterer registerer, long ownerId, FrameworkServices services) {
         this.prefix = prefix;
         this.registerer = registerer;
         this.ownerId = ownerId;
+        this.tracer = services.tracer;
+        this.metrics = services.metrics;
+        this.audit = services.audit;
+        this.usageStats = services.usageStats;
+        this.services = services;
+    }
+
+    /**
+     * Run commands without going through their bulkheads and circuit breakers. Those are shared
+     * with the real handler, so the warmup mustn't queue on them or trip them.
+     */
+    void skipGuards() {
+        this.skipGuards = true;
     }
 
     void acceptCall(MessageReceivedEvent e) {
-        String text = e.getMessage().getContentRaw().substring(this.prefix.length());
+        long received = System.nanoTime();
+        String text = e.getMessage().getContentRaw();
+        if (!text.startsWith(this.prefix)) return;
+        InvocationTrace trace = this.tracer.beginInvocation(e, received);
+
+        text = text.substring(this.prefix.length());
         String commandName = text.split("\\s+")[0];
         text = text.substring(commandName.length());
+        if (trace != null) {
+            trace.tokenize = trace.lap();
+            trace.command = commandName;
+        }
+
         Command command = this.registerer.getCommandByName(commandName);
-        if (command == null) return;
-        if (command.getCategory().equalsIgnoreCase("owner") && !e.getAuthor().getId().equals(String.valueOf(ownerId)))
+        if (trace != null) trace.lookup = trace.lap();
+        this.metrics.recordLookup(command != null);
+        if (command == null) {
+            if (trace != null) {
+                trace.outcome = "unknown";
+                trace.commit();
+            }
+            return;
+        }
+
+        boolean denied = "owner".equalsIgnoreCase(command.getCategory()) && e.getAuthor().getIdLong() != this.ownerId;
+        if (trace != null) trace.permissionCheck = trace.lap();
+        CommandEvent event = new CommandEvent(e, commandName, text, this);
+        event.trace = trace;
+        if (denied) {
+            this.complete(event, command, FrameworkMetrics.Outcome.DENIED, 0);
+            if (trace != null) {
+                trace.outcome = "denied";
+                trace.commit();
+            }
+            return;
+        }
+
+        Command resolved = this.resolve(event, command, trace);
+        if (resolved == null) return;
+
+        if (resolved.rateLimit > 0 && this.services.quotas != null && e.getAuthor().getIdLong() != this.ownerId) {
+            long wait = this.services.quotas.tryAcquire(resolved.getName() + ":" + e.getAuthor().getId(),
+                    resolved.rateLimit, resolved.rateLimitWindow);
+            if (trace != null) trace.permissionCheck += trace.lap();
+            if (wait > 0) {
+                this.complete(event, resolved, FrameworkMetrics.Outcome.LIMITED, 0);
+                String reply = resolved.getRateLimitReply();
+                if (reply != null && !reply.isEmpty()) event.replyBestEffort(reply.replace("%d", Long.toString((wait + 999) / 1000)));
+                if (trace != null) {
+                    trace.outcome = "limited";
+                    trace.commit();
+                }
+                return;
+            }
+        }
+
+        Bulkhead bulkhead = this.skipGuards ? null : resolved.bulkhead;
+        if (!this.skipGuards && (resolved.circuitBreaker != null || bulkhead != null)) this.registerGuards(resolved);
+        if (bulkhead == null) {
+            this.invoke(event, resolved, trace);
+            return;
+        }
+        // A queued invocation outlives this call, keep it in flight until it ran.
+        InFlightTracker inFlight = this.services.inFlight;
+        inFlight.startCommand();
+        boolean accepted = bulkhead.submit(() -> inFlight.runCommand(() -> this.invoke(event, resolved, trace)));
+        if (!accepted) {
+            inFlight.finishCommand();
+            this.reject(event, resolved, trace);
+        }
+    }
+
+    /**
+     * @return The command holding the settings to apply, or null if it couldn't be instantiated.
+     */
+    private Command resolve(CommandEvent event, Command command, InvocationTrace trace) {
+        try {
+            return command.resolve();
+        } catch (RuntimeException ex) {
+            LOGGER.error("Could not instantiate command " + command.getName() + ".", ex);
+            this.complete(event, command, FrameworkMetrics.Outcome.ERROR, 0);
+            if (trace != null) {
+                trace.outcome = "error";
+                trace.commit();
+            }
+            return null;
+        }
+    }
+
+    private void invoke(CommandEvent event, Command command, InvocationTrace trace) {
+        CircuitBreaker breaker = this.skipGuards ? null : command.circuitBreaker;
+        if (breaker != null && !breaker.allow()) {
+            this.reject(event, command, trace);
+            return;
+        }
+
+        long start = System.nanoTime();
+        String response;
+        try {
+            response = command.execute(event);
+        } catch (RuntimeException | Error ex) {
+            long nanos = System.nanoTime() - start;
+            if (breaker != null) breaker.record(true, nanos);
+            if (trace != null) {
+                trace.execute = trace.lap();
+                trace.outcome = "error";
+                trace.commit();
+            }
+            LOGGER.error("Command " + command.getName() + " threw an exception.", ex);
+            this.complete(event, command, FrameworkMetrics.Outcome.ERROR, nanos);
+            // Only rethrown once the breaker knows, or a failed trial would keep it half open for good.
+            if (ex instanceof Error) throw (Error) ex;
             return;
-        String response = command.execute(new CommandEvent(e, commandName, text));
+        }
+        long nanos = System.nanoTime() - start;
+        if (breaker != null) breaker.record(false, nanos);
+        if (trace != null) trace.execute = trace.lap();
+        this.complete(event, command, FrameworkMetrics.Outcome.EXECUTED, nanos);
+
         if (response != null && !response.isEmpty())
-            e.getChannel().sendMessage(response).queue();
+            event.reply(response);
+        if (trace != null) {
+            trace.replySend = trace.lap();
+            trace.outcome = "executed";
+            trace.commit();
+        }
+    }
+
+    private void reject(CommandEvent event, Command command, InvocationTrace trace) {
+        this.complete(event, command, FrameworkMetrics.Outcome.REJECTED, 0);
+        String fallback = command.getFallbackReply();
+        if (fallback != null && !fallback.isEmpty()) event.replyBestEffort(fallback);
+        if (trace != null) {
+            trace.outcome = "rejected";
+            trace.commit();
+        }
+    }
+
+    /**
+     * Export the bulkhead and breaker state of a command, once per name. The gauges look the
+     * command up on every scrape, so they follow reloaded plugins and don't keep old ones alive.
+     */
+    private void registerGuards(Command command) {
+        String name = command.getName();
+        if (!this.guarded.add(name)) return;
+        String labels = "command=\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        this.metrics.gauge("baclava_circuit_breaker_state", "0 if closed, 1 if half open, 2 if open.", labels, () -> {
+            Command current = this.registerer.getCommandByName(name);
+            return current == null || current.circuitBreaker == null ? 0 : current.circuitBreaker.getState();
+        });
+        this.metrics.gauge("baclava_bulkhead_active", "Invocations of the command running.", labels, () -> {
+            Command current = this.registerer.getCommandByName(name);
+            return current == null || current.bulkhead == null ? 0 : current.bulkhead.getActive();
+        });
+        this.metrics.gauge("baclava_bulkhead_queued", "Invocations of the command waiting for the bulkhead.", labels, () -> {
+            Command current = this.registerer.getCommandByName(name);
+            return current == null || current.bulkhead == null ? 0 : current.bulkhead.getQueued();
+        });
+    }
+
+    private void complete(CommandEvent event, Command command, FrameworkMetrics.Outcome outcome, long nanos) {
+        this.metrics.recordInvocation(command.getName(), outcome, nanos);
+        if (this.audit != null) this.audit.record(event, command.getName(), outcome, nanos);
+        boolean ran = outcome == FrameworkMetrics.Outcome.EXECUTED || outcome == FrameworkMetrics.Outcome.ERROR;
+        if (this.usageStats != null && ran)
+            this.usageStats.record(command.getName(), event.hasGuild() ? event.getGuild().getIdLong() : 0,
+                    outcome == FrameworkMetrics.Outcome.ERROR, nanos);
+    }
+
+    CommandTracer getTracer() {
+        return this.tracer;
+    }
+
+    FrameworkServices getServices() {
+        return this.services;
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event emitted once per traced command invocation,
+ * carrying the time spent on each dispatch stage.
+ *
+ * @see InvocationTrace
+ * @see CommandTracer
+ */
+@Name("io.github.hotlava03.baclavaframework.CommandInvocation")
+@Label("Command Invocation")
+@Category({"Baclava Framework", "Commands"})
+@Description("Dispatch of a single prefixed message through the command handler.")
+@StackTrace(false)
+class CommandInvocationEvent extends jdk.jfr.Event {
+    @Label("Command")
+    String command;
+
+    @Label("Outcome")
+    @Description("executed, unknown, denied, limited, rejected or error.")
+    String outcome;
+
+    @Label("Guild ID")
+    long guildId;
+
+    @Label("Channel ID")
+    long channelId;
+
+    @Label("Receive Delay")
+    @Description("Time between message creation on Discord and the handler receiving it.")
+    @Timespan(Timespan.MILLISECONDS)
+    long receive;
+
+    @Label("Prefix Match")
+    @Timespan(Timespan.NANOSECONDS)
+    long prefixMatch;
+
+    @Label("Tokenize")
+    @Timespan(Timespan.NANOSECONDS)
+    long tokenize;
+
+    @Label("Lookup")
+    @Timespan(Timespan.NANOSECONDS)
+    long lookup;
+
+    @Label("Permission Check")
+    @Timespan(Timespan.NANOSECONDS)
+    long permissionCheck;
+
+    @Label("Execute")
+    @Timespan(Timespan.NANOSECONDS)
+    long execute;
+
+    @Label("Reply Send")
+    @Description("Time spent queueing the returned reply, see Command Reply for the round trip.")
+    @Timespan(Timespan.NANOSECONDS)
+    long replySend;
+}
@@ -23,7 +23,9 @@ import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 /**
@@ -37,7 +39,10 @@ import java.util.function.Function;
  * @see CommandRegisterer#register(String name, Function commandCallback)
  */
 public abstract class CommandRegisterer {
-    private final Map<String, Command> commands = new HashMap<>();
+    private final Map<String, Command> commands = new ConcurrentHashMap<>();
+    private final Map<String, Command> aliases = new ConcurrentHashMap<>();
+    private CommandRegisterer parent;
+    private boolean registered;
 
     /**
      * Add all registered commands here. This method is called when you build {@link BaclavaFramework}
@@ -55,16 +60,74 @@ public abstract class CommandRegisterer {
      */
     public abstract void handleRegistration();
 
+    /**
+     * Call {@link #handleRegistration()} unless it was already called, so a registerer
+     * shared by several bots only registers its commands once.
+     */
+    synchronized void ensureRegistered() {
+        if (this.registered) return;
+        this.registered = true;
+        this.handleRegistration();
+    }
+
+    /**
+     * Fall back to the commands of another registerer. Commands registered here override
+     * the ones with the same name in the parent.
+     *
+     * @throws IllegalArgumentException If this would create a cycle.
+     */
+    void setParent(CommandRegisterer parent) {
+        for (CommandRegisterer r = parent; r != null; r = r.parent)
+            if (r == this) throw new IllegalArgumentException("A command registerer can't inherit from itself.");
+        this.parent = parent;
+    }
+
     /**
      * Register a command when you dedicated a class for it. It is not recommended to instantiate
      * the abstract class, use {@link CommandRegisterer#register(CommandDescription description, Function commandCallback)}
      * instead, which will be much cleaner with lambda syntax.
      *
+     * Aliases are indexed here, and indexed again when the command changes them.
+     *
      * @param name The name of the command.
      * @param command The command which extends {@link Command}, instantiated.
      */
     public void registerCommand(String name, Command command) {
-        this.commands.put(name, command);
+        command.name = name;
+        command.registerer = this;
+        Command previous = this.commands.put(name, command);
+        if (previous != null && previous != command)
+            for (String alias : previous.getAliases())
+                this.aliases.remove(alias.toLowerCase(Locale.ROOT), previous);
+        for (String alias : command.getAliases())
+            this.aliases.putIfAbsent(alias.toLowerCase(Locale.ROOT), command);
+    }
+
+    /**
+     * Remove a command and its aliases, for example to disable a feature at runtime.
+     *
+     * @param name The name the command was registered with.
+     * @return The removed command, or null if there was none.
+     */
+    @Nullable
+    public Command unregisterCommand(String name) {
+        Command command = this.commands.remove(name);
+        if (command == null) return null;
+        if (command.registerer == this) command.registerer = null;
+        for (String alias : command.getAliases())
+            this.aliases.remove(alias.toLowerCase(Locale.ROOT), command);
+        return command;
+    }
+
+    /**
+     * Replace the indexed aliases of a registered command after it changed them.
+     */
+    synchronized void reindexAliases(Command command, String[] previous) {
+        if (this.commands.get(command.getName()) != command) return;
+        for (String alias : previous)
+            this.aliases.remove(alias.toLowerCase(Locale.ROOT), command);
+        for (String alias : command.getAliases())
+            this.aliases.putIfAbsent(alias.toLowerCase(Locale.ROOT), command);
     }
 
     /**
@@ -90,20 +153,34 @@ public abstract class CommandRegisterer {
      * @see CommandDescription
      */
     public void register(CommandDescription description, Function<CommandEvent, String> commandCallback) {
-        Command command = new Command() {
+        this.registerCommand(description, new Command() {
             @Override
             protected String onCommand(CommandEvent e) {
                 return commandCallback.apply(e);
             }
-        };
+        });
+    }
 
-        command.setAliases(description.getAliases())
-                .setCategory(description.getCategory())
-                .setExamples(description.getExamples())
-                .setFlags(description.getFlags())
-                .setUsage(description.getUsage());
+    /**
+     * Register a command instance under the name of a description. The aliases, category, usage,
+     * examples and flags of the description replace the ones set by the command itself, unless
+     * they're empty. Used by the registerers generated from {@link BaclavaCommand} annotations.
+     *
+     * @param description The full command description.
+     * @param command The command which extends {@link Command}, instantiated.
+     *
+     * @see CommandDescription
+     */
+    public void registerCommand(CommandDescription description, Command command) {
+        if (description.getAliases() != null && description.getAliases().length > 0)
+            command.setAliases(description.getAliases());
+        if (description.getCategory() != null) command.setCategory(description.getCategory());
+        if (description.getExamples() != null) command.setExamples(description.getExamples());
+        if (description.getFlags() != null && description.getFlags().length > 0)
+            command.setFlags(description.getFlags());
+        if (description.getUsage() != null) command.setUsage(description.getUsage());
 
-        this.commands.put(description.getName(), command);
+        this.registerCommand(description.getName(), command);
     }
 
     /**
@@ -114,20 +191,24 @@ public abstract class CommandRegisterer {
      */
     @Nullable
     public Command getCommandByName(String name) {
-        if (commands.get(name) != null) return commands.get(name);
-        for (Map.Entry<String, Command> command : commands.entrySet())
-            for (String alias : command.getValue().getAliases())
-                if (alias.equalsIgnoreCase(name)) return command.getValue();
-        return null;
+        Command command = this.commands.get(name);
+        if (command != null) return command;
+        command = this.aliases.get(name.toLowerCase(Locale.ROOT));
+        if (command != null || this.parent == null) return command;
+        return this.parent.getCommandByName(name);
     }
 
     /**
-     * Get all registered commands in {@link Map} format.
+     * Get all registered commands in {@link Map} format. When running in a {@link BaclavaHost},
+     * this includes the shared commands that weren't overridden, in a copy.
      *
      * @return All registered commands.
      */
     public Map<String, Command> getCommands() {
-        return this.commands;
+        if (this.parent == null) return this.commands;
+        Map<String, Command> commands = new HashMap<>(this.parent.getCommands());
+        commands.putAll(this.commands);
+        return commands;
     }
 
     /**
@@ -138,7 +219,7 @@ public abstract class CommandRegisterer {
      * @return All registered commands, without the name.
      */
     public List<Command> getCommandsAsList() {
-        return new ArrayList<>(this.commands.values());
+        return new ArrayList<>(this.getCommands().values());
     }
 
     /**
@@ -147,6 +228,6 @@ public abstract class CommandRegisterer {
      * @return All registered command names.
      */
     public List<String> getAllCommandNames() {
-        return new ArrayList<>(this.commands.keySet());
+        return new ArrayList<>(this.getCommands().keySet());
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event spanning a reply from the moment it is queued
+ * until Discord acknowledges (or rejects) it. The event duration is
+ * the reply round trip.
+ *
+ * @see CommandTracer
+ */
+@Name("io.github.hotlava03.baclavaframework.CommandReply")
+@Label("Command Reply")
+@Category({"Baclava Framework", "Commands"})
+@Description("Round trip of a reply sent on behalf of a command.")
+@StackTrace(false)
+class CommandReplyEvent extends jdk.jfr.Event {
+    @Label("Command")
+    String command;
+
+    @Label("Guild ID")
+    long guildId;
+
+    @Label("Channel ID")
+    long channelId;
+
+    @Label("Success")
+    boolean success;
+
+    /**
+     * Close and commit the event.
+     *
+     * @param success Whether Discord accepted the reply.
+     */
+    void finish(boolean success) {
+        this.end();
+        this.success = success;
+        this.commit();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Creates Java Flight Recorder events for command invocations and replies.
+ * Nothing is allocated unless the invocation is sampled and a recording
+ * has the corresponding event enabled, so tracing is always on. The replies
+ * of a sampled invocation are traced too, and only those.
+ *
+ * @see CommandInvocationEvent
+ * @see CommandReplyEvent
+ */
+class CommandTracer {
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+    private static final long DISCORD_EPOCH = 1420070400000L;
+
+    private final int sampleRate;
+
+    /**
+     * @param sampleRate Trace one out of every sampleRate invocations.
+     */
+    CommandTracer(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Start tracing an invocation, once its prefix matched.
+     *
+     * @param e The received message.
+     * @param received The {@link System#nanoTime()} before matching the prefix.
+     * @return The started trace, or null if this invocation is not traced.
+     */
+    InvocationTrace beginInvocation(MessageReceivedEvent e, long received) {
+        if (!this.isSampled()) return null;
+        long prefixMatch = System.nanoTime() - received;
+        Object event = Events.beginInvocation();
+        if (event == null) return null;
+        InvocationTrace trace = new InvocationTrace(event, prefixMatch);
+        trace.receive = System.currentTimeMillis() - ((e.getMessageIdLong() >>> 22) + DISCORD_EPOCH);
+        trace.channelId = e.getChannel().getIdLong();
+        if (e.isFromType(ChannelType.TEXT)) trace.guildId = e.getGuild().getIdLong();
+        return trace;
+    }
+
+    /**
+     * Start tracing a reply.
+     *
+     * @param e The command event replying.
+     * @return The started trace, or null if the invocation of this command is not traced.
+     */
+    InvocationTrace.Reply beginReply(CommandEvent e) {
+        InvocationTrace invocation = e.trace;
+        if (invocation == null) return null;
+        Object event = Events.beginReply(e.getCommand(), invocation.channelId, invocation.guildId);
+        return event == null ? null : new InvocationTrace.Reply(event);
+    }
+
+    private boolean isSampled() {
+        return AVAILABLE && (this.sampleRate == 1 || ThreadLocalRandom.current().nextInt(this.sampleRate) == 0);
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The only code referring to the event classes. It is loaded on first use, which only
+     * happens once {@link #AVAILABLE} said the flight recorder classes exist.
+     */
+    static final class Events {
+        private Events() {
+        }
+
+        static Object beginInvocation() {
+            CommandInvocationEvent event = new CommandInvocationEvent();
+            if (!event.isEnabled()) return null;
+            event.begin();
+            return event;
+        }
+
+        static void commitInvocation(Object begun, InvocationTrace trace) {
+            CommandInvocationEvent event = (CommandInvocationEvent) begun;
+            event.command = trace.command;
+            event.outcome = trace.outcome;
+            event.guildId = trace.guildId;
+            event.channelId = trace.channelId;
+            event.receive = trace.receive;
+            event.prefixMatch = trace.prefixMatch;
+            event.tokenize = trace.tokenize;
+            event.lookup = trace.lookup;
+            event.permissionCheck = trace.permissionCheck;
+            event.execute = trace.execute;
+            event.replySend = trace.replySend;
+            event.commit();
+        }
+
+        static Object beginReply(String command, long channelId, long guildId) {
+            CommandReplyEvent event = new CommandReplyEvent();
+            if (!event.isEnabled()) return null;
+            event.begin();
+            event.command = command;
+            event.channelId = channelId;
+            event.guildId = guildId;
+            return event;
+        }
+
+        static void finishReply(Object begun, boolean success) {
+            ((CommandReplyEvent) begun).finish(success);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops messages the gateway delivers twice, which happens when a session resumes or reconnects.
+ * Fixed size, about 450KB, whatever the traffic:
+ * <ul>
+ *     <li>An exact set of the last {@value #RECENT} message IDs. Any ID newer than every ID evicted
+ *     from it is checked against it alone, so fresh messages are never dropped by mistake.</li>
+ *     <li>Two rotating Bloom filters for the older IDs, each covering a generation of
+ *     {@value #GENERATION_CAPACITY} messages or the generation duration, whichever ends first.
+ *     An ID older than the exact set is dropped if either filter may hold it.</li>
+ * </ul>
+ * The real false positive rate of the filters is measured by probing them with IDs that can't
+ * be snowflakes (negative ones) every {@value #PROBE_INTERVAL} messages.
+ */
+class DuplicateFilter {
+    private static final int RECENT = 8192;
+    private static final int BLOOM_BITS = 1 << 20;
+    private static final int HASHES = 7;
+    private static final int GENERATION_CAPACITY = 65536;
+    private static final int PROBE_INTERVAL = 64;
+
+    private final long generationNanos;
+    // Arrival order of the exact set, and its open addressing index. 0 marks empty slots, no snowflake is 0.
+    private final long[] recent = new long[RECENT];
+    private final long[] index = new long[RECENT * 2];
+    private int recentHead;
+    private int recentSize;
+    private long evictedMax;
+    private final long[][] generations = {new long[BLOOM_BITS / 64], new long[BLOOM_BITS / 64]};
+    private int current;
+    private int inserted;
+    private long rotatedAt;
+    private long seen;
+    private long exactDrops;
+    private long probableDrops;
+    // Probes of the current and last generation.
+    private long probes;
+    private long probePositives;
+    private long lastProbes;
+    private long lastProbePositives;
+
+    /**
+     * @param generation The longest a Bloom filter generation lasts. Replays are caught for at least that long.
+     * @param unit The generation unit.
+     */
+    DuplicateFilter(long generation, TimeUnit unit) {
+        this.generationNanos = unit.toNanos(generation);
+        this.rotatedAt = System.nanoTime();
+    }
+
+    /**
+     * Record a message ID.
+     *
+     * @return False if the message was already seen, or probably was.
+     */
+    synchronized boolean firstSeen(long id) {
+        long hash = mix(id);
+        if (this.containsRecent(id, hash)) {
+            this.exactDrops++;
+            return false;
+        }
+        if (id <= this.evictedMax && this.mightContain(hash)) {
+            this.probableDrops++;
+            return false;
+        }
+
+        this.addRecent(id, hash);
+        this.addBloom(hash);
+        if (++this.seen % PROBE_INTERVAL == 0) this.probe();
+        return true;
+    }
+
+    synchronized long getExactDrops() {
+        return this.exactDrops;
+    }
+
+    synchronized long getProbableDrops() {
+        return this.probableDrops;
+    }
+
+    /**
+     * @return The share of probes the Bloom filters wrongly claimed to hold, over this generation and the last one.
+     */
+    synchronized double getMeasuredFalsePositiveRate() {
+        long probes = this.probes + this.lastProbes;
+        return probes == 0 ? 0 : (double) (this.probePositives + this.lastProbePositives) / probes;
+    }
+
+    /**
+     * @return The false positive rate expected from how full the Bloom filters are.
+     */
+    synchronized double getEstimatedFalsePositiveRate() {
+        double miss = 1;
+        for (long[] bits : this.generations) {
+            long set = 0;
+            for (long word : bits) set += Long.bitCount(word);
+            miss *= 1 - Math.pow((double) set / BLOOM_BITS, HASHES);
+        }
+        return 1 - miss;
+    }
+
+    void registerMetrics(FrameworkMetrics metrics, String labels) {
+        String prefix = labels == null ? "" : labels + ",";
+        metrics.counter("baclava_duplicate_messages_dropped", "Messages dropped as already seen.",
+                prefix + "match=\"exact\"", this::getExactDrops);
+        metrics.counter("baclava_duplicate_messages_dropped", "Messages dropped as already seen.",
+                prefix + "match=\"probable\"", this::getProbableDrops);
+        metrics.gauge("baclava_duplicate_filter_false_positive_rate", "Measured false positive rate of the Bloom filters.",
+                labels, this::getMeasuredFalsePositiveRate);
+        metrics.gauge("baclava_duplicate_filter_estimated_false_positive_rate",
+                "False positive rate expected from the Bloom filter fill.", labels, this::getEstimatedFalsePositiveRate);
+    }
+
+    private void rotate(long now) {
+        this.current ^= 1;
+        Arrays.fill(this.generations[this.current], 0);
+        this.inserted = 0;
+        this.rotatedAt = now;
+        this.lastProbes = this.probes;
+        this.lastProbePositives = this.probePositives;
+        this.probes = 0;
+        this.probePositives = 0;
+    }
+
+    private void probe() {
+        this.probes++;
+        if (this.mightContain(mix(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE))) this.probePositives++;
+    }
+
+    private boolean mightContain(long hash) {
+        return this.bloomContains(this.generations[0], hash) || this.bloomContains(this.generations[1], hash);
+    }
+
+    private boolean bloomContains(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & (BLOOM_BITS - 1);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private void addBloom(long hash) {
+        long now = System.nanoTime();
+        if (this.inserted >= GENERATION_CAPACITY || now - this.rotatedAt >= this.generationNanos) this.rotate(now);
+        long[] bits = this.generations[this.current];
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & (BLOOM_BITS - 1);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        this.inserted++;
+    }
+
+    private boolean containsRecent(long id, long hash) {
+        int mask = this.index.length - 1;
+        for (int i = home(hash, mask); this.index[i] != 0; i = (i + 1) & mask)
+            if (this.index[i] == id) return true;
+        return false;
+    }
+
+    private void addRecent(long id, long hash) {
+        if (this.recentSize == RECENT) {
+            long evicted = this.recent[this.recentHead];
+            this.removeRecent(evicted);
+            if (evicted > this.evictedMax) this.evictedMax = evicted;
+        } else {
+            this.recentSize++;
+        }
+        this.recent[this.recentHead] = id;
+        this.recentHead = (this.recentHead + 1) & (RECENT - 1);
+
+        int mask = this.index.length - 1;
+        int i = home(hash, mask);
+        while (this.index[i] != 0) i = (i + 1) & mask;
+        this.index[i] = id;
+    }
+
+    private void removeRecent(long id) {
+        int mask = this.index.length - 1;
+        int i = home(mix(id), mask);
+        while (this.index[i] != id) {
+            if (this.index[i] == 0) return;
+            i = (i + 1) & mask;
+        }
+        // Shift back the following entries of the cluster that can't be reached anymore otherwise.
+        for (int j = (i + 1) & mask; this.index[j] != 0; j = (j + 1) & mask) {
+            int k = home(mix(this.index[j]), mask);
+            if (i <= j ? i < k && k <= j : i < k || k <= j) continue;
+            this.index[i] = this.index[j];
+            i = j;
+        }
+        this.index[i] = 0;
+    }
+
+    private static int home(long hash, int mask) {
+        return (int) (hash >>> 40) & mask;
+    }
+
+    private static long mix(long id) {
+        // Stafford's variant 13 of the MurmurHash3 finalizer.
+        id = (id ^ (id >>> 30)) * 0xbf58476d1ce4e5b9L;
+        id = (id ^ (id >>> 27)) * 0x94d049bb133111ebL;
+        return id ^ (id >>> 31);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.MessageUpdateEvent;
+
+/**
+ * An edited command message, dispatched like a new one. Its {@link CommandEvent} edits the
+ * earlier reply instead of sending a new one.
+ *
+ * @see BaclavaFrameworkBuilder#setEditDispatch(long window, java.util.concurrent.TimeUnit unit)
+ */
+class EditedMessageEvent extends MessageReceivedEvent {
+    EditedMessageEvent(MessageUpdateEvent e) {
+        super(e.getJDA(), e.getResponseNumber(), e.getMessage());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events over the last minute in one second buckets. Recording is a couple of
+ * atomic operations, old buckets are reset lazily by whoever lands on them first.
+ */
+class EventRateMeter {
+    private static final int WINDOW = 60;
+
+    private final AtomicLongArray counts = new AtomicLongArray(WINDOW);
+    private final AtomicLongArray seconds = new AtomicLongArray(WINDOW);
+    private final LongAdder total = new LongAdder();
+
+    void record() {
+        long second = System.currentTimeMillis() / 1000;
+        int bucket = (int) (second % WINDOW);
+        long stamp = this.seconds.get(bucket);
+        if (stamp != second && this.seconds.compareAndSet(bucket, stamp, second))
+            this.counts.set(bucket, 0);
+        this.counts.incrementAndGet(bucket);
+        this.total.increment();
+    }
+
+    /**
+     * @return The average events per second over the last minute.
+     */
+    double getRate() {
+        long now = System.currentTimeMillis() / 1000;
+        long sum = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            long second = this.seconds.get(i);
+            // Skip the current, incomplete second.
+            if (second != now && now - second < WINDOW + 1) sum += this.counts.get(i);
+        }
+        return (double) sum / WINDOW;
+    }
+
+    long getTotal() {
+        return this.total.sum();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Waits for a reaction or a message, for reaction menus and follow-up prompts. Pending waits
+ * are indexed by message, channel or user ID, so an event only ever looks at the waits made for
+ * it, and they expire on a shared timer instead of a thread each. Every wait completes at most
+ * once: either its action runs for the first matching event or its timeout action runs.
+ * <pre>{@code
+ * e.reply("Delete everything? React with \u2705 to confirm.", message -> {
+ *     message.addReaction("\u2705").queue();
+ *     e.getEventWaiter().waitForReaction(message.getIdLong(), e.getAuthor().getIdLong(),
+ *             r -> r.getReactionEmote().getName().equals("\u2705"),
+ *             r -> e.reply("Deleted."), 30, TimeUnit.SECONDS, () -> e.reply("Cancelled."));
+ * });
+ * }</pre>
+ *
+ * @see BaclavaFramework#getEventWaiter()
+ */
+public class EventWaiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventWaiter.class);
+
+    private final Map<Long, List<Wait<MessageReactionAddEvent>>> reactionsByMessage = new ConcurrentHashMap<>();
+    private final Map<Long, List<Wait<MessageReceivedEvent>>> messagesByChannel = new ConcurrentHashMap<>();
+    private final Map<Long, List<Wait<MessageReceivedEvent>>> messagesByUser = new ConcurrentHashMap<>();
+    private final HashedWheelTimer timer;
+    private final Executor executor;
+
+    /**
+     * @param executor Runs the actions, or null to run them on the thread that received the event.
+     */
+    EventWaiter(Executor executor) {
+        this.executor = executor == null ? Runnable::run : executor;
+        this.timer = new HashedWheelTimer("baclava-event-waiter", 100, TimeUnit.MILLISECONDS, 512, this.executor);
+    }
+
+    /**
+     * Wait for a reaction on a message.
+     *
+     * @param messageId The message to watch.
+     * @param userId The user who must react, or 0 for anyone but the bot.
+     * @param condition Must return true for the reaction to complete the wait.
+     * @param action What to do with the reaction.
+     * @param timeout How long to wait.
+     * @param unit The timeout unit.
+     * @param onTimeout What to do if nothing matched in time. May be null.
+     * @return The pending wait.
+     */
+    public Wait<MessageReactionAddEvent> waitForReaction(long messageId, long userId,
+                                                         Predicate<? super MessageReactionAddEvent> condition,
+                                                         Consumer<? super MessageReactionAddEvent> action,
+                                                         long timeout, TimeUnit unit, Runnable onTimeout) {
+        return this.add(this.reactionsByMessage, messageId, userId, condition, action, timeout, unit, onTimeout);
+    }
+
+    /**
+     * Wait for a message in a channel.
+     *
+     * @param channelId The channel to watch.
+     * @param userId The user who must send the message, or 0 for anyone.
+     * @param condition Must return true for the message to complete the wait.
+     * @param action What to do with the message.
+     * @param timeout How long to wait.
+     * @param unit The timeout unit.
+     * @param onTimeout What to do if nothing matched in time. May be null.
+     * @return The pending wait.
+     */
+    public Wait<MessageReceivedEvent> waitForMessage(long channelId, long userId,
+                                                     Predicate<? super MessageReceivedEvent> condition,
+                                                     Consumer<? super MessageReceivedEvent> action,
+                                                     long timeout, TimeUnit unit, Runnable onTimeout) {
+        return this.add(this.messagesByChannel, channelId, userId, condition, action, timeout, unit, onTimeout);
+    }
+
+    /**
+     * Wait for a message from a user in any channel, including direct messages.
+     *
+     * @param userId The user who must send the message.
+     * @param condition Must return true for the message to complete the wait.
+     * @param action What to do with the message.
+     * @param timeout How long to wait.
+     * @param unit The timeout unit.
+     * @param onTimeout What to do if nothing matched in time. May be null.
+     * @return The pending wait.
+     */
+    public Wait<MessageReceivedEvent> waitForUserMessage(long userId, Predicate<? super MessageReceivedEvent> condition,
+                                                         Consumer<? super MessageReceivedEvent> action,
+                                                         long timeout, TimeUnit unit, Runnable onTimeout) {
+        return this.add(this.messagesByUser, userId, userId, condition, action, timeout, unit, onTimeout);
+    }
+
+    /**
+     * @return The amount of waits not yet completed, cancelled or expired.
+     */
+    public int getPending() {
+        int pending = 0;
+        for (List<?> waits : this.reactionsByMessage.values()) pending += waits.size();
+        for (List<?> waits : this.messagesByChannel.values()) pending += waits.size();
+        for (List<?> waits : this.messagesByUser.values()) pending += waits.size();
+        return pending;
+    }
+
+    void onReaction(MessageReactionAddEvent e) {
+        if (this.reactionsByMessage.isEmpty()) return;
+        if (e.getUserIdLong() == e.getJDA().getSelfUser().getIdLong()) return;
+        this.match(this.reactionsByMessage, e.getMessageIdLong(), e.getUserIdLong(), e);
+    }
+
+    void onMessage(MessageReceivedEvent e) {
+        long userId = e.getAuthor().getIdLong();
+        if (!this.messagesByChannel.isEmpty()) this.match(this.messagesByChannel, e.getChannel().getIdLong(), userId, e);
+        if (!this.messagesByUser.isEmpty()) this.match(this.messagesByUser, userId, userId, e);
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_event_waiter_pending", "Reactions and messages being waited for.", null, this::getPending);
+    }
+
+    void stop() {
+        this.timer.stop();
+    }
+
+    private <T> Wait<T> add(Map<Long, List<Wait<T>>> index, long key, long userId, Predicate<? super T> condition,
+                            Consumer<? super T> action, long timeout, TimeUnit unit, Runnable onTimeout) {
+        if (condition == null || action == null)
+            throw new IllegalArgumentException("The condition and action cannot be null!");
+        Wait<T> wait = new Wait<>(index, key, userId, condition, action);
+        index.compute(key, (k, waits) -> {
+            if (waits == null) waits = new ArrayList<>(1);
+            synchronized (waits) {
+                waits.add(wait);
+            }
+            return waits;
+        });
+        wait.timeout = this.timer.newTimeout(() -> {
+            if (!wait.complete()) return;
+            if (onTimeout != null) onTimeout.run();
+        }, timeout, unit);
+        return wait;
+    }
+
+    private <T> void match(Map<Long, List<Wait<T>>> index, long key, long userId, T event) {
+        List<Wait<T>> waits = index.get(key);
+        if (waits == null) return;
+
+        List<Wait<T>> candidates;
+        synchronized (waits) {
+            candidates = new ArrayList<>(waits);
+        }
+        for (Wait<T> wait : candidates) {
+            if (wait.userId != 0 && wait.userId != userId) continue;
+            boolean matches;
+            try {
+                matches = wait.condition.test(event);
+            } catch (RuntimeException ex) {
+                LOGGER.error("An event waiter condition threw an exception.", ex);
+                continue;
+            }
+            if (!matches || !wait.complete()) continue;
+            try {
+                // Without a command executor the action runs on the event thread, where an
+                // exception would end the event stream of the shard.
+                this.executor.execute(() -> {
+                    try {
+                        wait.action.accept(event);
+                    } catch (RuntimeException ex) {
+                        LOGGER.error("An event waiter action threw an exception.", ex);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                LOGGER.warn("An event waiter action was rejected by the command executor.");
+            }
+        }
+    }
+
+    /**
+     * A reaction or message being waited for.
+     *
+     * @param <T> The event type.
+     */
+    public static final class Wait<T> {
+        private final Map<Long, List<Wait<T>>> index;
+        private final long key;
+        private final long userId;
+        private final Predicate<? super T> condition;
+        private final Consumer<? super T> action;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        private Wait(Map<Long, List<Wait<T>>> index, long key, long userId, Predicate<? super T> condition,
+                     Consumer<? super T> action) {
+            this.index = index;
+            this.key = key;
+            this.userId = userId;
+            this.condition = condition;
+            this.action = action;
+        }
+
+        /**
+         * Stop waiting. Neither the action nor the timeout action will run.
+         *
+         * @return False if the wait had already completed.
+         */
+        public boolean cancel() {
+            return this.complete();
+        }
+
+        /**
+         * @return True if the wait completed, expired or was cancelled.
+         */
+        public boolean isDone() {
+            return this.done.get();
+        }
+
+        private boolean complete() {
+            if (!this.done.compareAndSet(false, true)) return false;
+            this.index.computeIfPresent(this.key, (k, waits) -> {
+                synchronized (waits) {
+                    waits.remove(this);
+                }
+                return waits.isEmpty() ? null : waits;
+            });
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null) timeout.cancel();
+            return true;
+        }
+    }
+}
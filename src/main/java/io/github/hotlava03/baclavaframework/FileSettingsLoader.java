@@ -0,0 +1,82 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps the settings of each guild in {@code <guildId>.properties} in a directory. Writes go to a
+ * temporary file first, then replace the old one atomically, so a crash never leaves a half written file.
+ */
+public class FileSettingsLoader implements SettingsLoader {
+    private final Path directory;
+    private final Object[] locks = new Object[64];
+
+    /**
+     * @param directory The directory to keep the files in. Created if needed.
+     * @throws IOException If the directory can't be created.
+     */
+    public FileSettingsLoader(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        for (int i = 0; i < this.locks.length; i++) this.locks[i] = new Object();
+    }
+
+    @Override
+    public Map<String, String> load(long guildId) throws IOException {
+        Properties properties = this.read(this.directory.resolve(guildId + ".properties"));
+        Map<String, String> settings = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) settings.put(name, properties.getProperty(name));
+        return settings;
+    }
+
+    @Override
+    public void save(long guildId, String name, String value) throws IOException {
+        Path file = this.directory.resolve(guildId + ".properties");
+        synchronized (this.locks[(int) (guildId ^ (guildId >>> 32)) & (this.locks.length - 1)]) {
+            Properties properties = this.read(file);
+            if (value == null) properties.remove(name);
+            else properties.setProperty(name, value);
+            Path temp = this.directory.resolve(guildId + ".properties.tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private Properties read(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            // The guild never set anything.
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters, histograms and gauges collected by the framework. Always collected,
+ * as updating them only costs a few uncontended additions per command.
+ * Exported in Prometheus text format when
+ * {@link BaclavaFrameworkBuilder#setMetricsPort(int port)} is used.
+ *
+ * @see BaclavaFramework#getMetrics()
+ */
+public class FrameworkMetrics {
+    private static final long[] LATENCY_BUCKETS = {
+            TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(5), TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.MILLISECONDS.toNanos(25), TimeUnit.MILLISECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(250), TimeUnit.MILLISECONDS.toNanos(500), TimeUnit.SECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(2500), TimeUnit.SECONDS.toNanos(5), TimeUnit.SECONDS.toNanos(10)
+    };
+    private static final String[] BUCKET_LABELS = {
+            "0.001", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "+Inf"
+    };
+
+    private final Map<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    private final Map<Class<?>, LongAdder> gatewayEvents = new ConcurrentHashMap<>();
+    private final Map<String, Family> gauges = new LinkedHashMap<>();
+    private final LongAdder lookupHits = new LongAdder();
+    private final LongAdder lookupMisses = new LongAdder();
+
+    /**
+     * How an invocation ended.
+     */
+    enum Outcome {
+        EXECUTED, DENIED, ERROR, REJECTED, LIMITED;
+
+        final String label = this.name().toLowerCase(Locale.ROOT);
+    }
+
+    FrameworkMetrics() {
+    }
+
+    /**
+     * @param command The command name.
+     * @return How many times the command ran, whatever the outcome.
+     */
+    public long getInvocations(String command) {
+        CommandMetrics metrics = this.commands.get(command);
+        if (metrics == null) return 0;
+        long total = 0;
+        for (LongAdder outcome : metrics.outcomes) total += outcome.sum();
+        return total;
+    }
+
+    /**
+     * @param command The command name.
+     * @return How many times the command threw an exception.
+     */
+    public long getErrors(String command) {
+        CommandMetrics metrics = this.commands.get(command);
+        return metrics == null ? 0 : metrics.outcomes[Outcome.ERROR.ordinal()].sum();
+    }
+
+    /**
+     * @param command The command name.
+     * @param unit The unit to get the average in.
+     * @return The average time spent executing the command, 0 if it never ran.
+     */
+    public long getAverageLatency(String command, TimeUnit unit) {
+        CommandMetrics metrics = this.commands.get(command);
+        if (metrics == null) return 0;
+        long count = metrics.count.sum();
+        return count == 0 ? 0 : unit.convert(metrics.totalNanos.sum() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The total amount of events received from the gateway.
+     */
+    public long getGatewayEvents() {
+        long total = 0;
+        for (LongAdder events : this.gatewayEvents.values()) total += events.sum();
+        return total;
+    }
+
+    /**
+     * @return All metrics in Prometheus text format.
+     */
+    public String scrape() {
+        PrometheusWriter writer = new PrometheusWriter(8192);
+        this.write(writer);
+        return new String(writer.getBuffer(), 0, writer.size(), StandardCharsets.UTF_8);
+    }
+
+    void recordLookup(boolean hit) {
+        if (hit) this.lookupHits.increment();
+        else this.lookupMisses.increment();
+    }
+
+    void recordInvocation(String command, Outcome outcome, long nanos) {
+        CommandMetrics metrics = this.commands.computeIfAbsent(command, name -> new CommandMetrics());
+        metrics.outcomes[outcome.ordinal()].increment();
+        if (outcome != Outcome.EXECUTED && outcome != Outcome.ERROR) return;
+        metrics.count.increment();
+        metrics.totalNanos.add(nanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && nanos > LATENCY_BUCKETS[bucket]) bucket++;
+        metrics.buckets[bucket].increment();
+    }
+
+    void recordEvent(GenericEvent event) {
+        this.gatewayEvents.computeIfAbsent(event.getClass(), type -> new LongAdder()).increment();
+    }
+
+    /**
+     * Register a gauge, read on every scrape. Replaces the gauge with the same name and labels, if any.
+     *
+     * @param name The metric name.
+     * @param help The metric description.
+     * @param labels Preformatted labels, like {@code pool="callback"}, or null.
+     * @param value The gauge value supplier.
+     */
+    void gauge(String name, String help, String labels, DoubleSupplier value) {
+        this.register(name, "gauge", help, labels, value);
+    }
+
+    /**
+     * Register a counter, read on every scrape and exported with the {@code _total} suffix.
+     * Replaces the counter with the same name and labels, if any.
+     *
+     * @param name The metric name, without the suffix.
+     * @param help The metric description.
+     * @param labels Preformatted labels, like {@code result="hit"}, or null.
+     * @param value The counter value supplier, which must only grow.
+     */
+    void counter(String name, String help, String labels, DoubleSupplier value) {
+        this.register(name + "_total", "counter", help, labels, value);
+    }
+
+    private void register(String name, String type, String help, String labels, DoubleSupplier value) {
+        synchronized (this.gauges) {
+            List<Gauge> samples = this.gauges.computeIfAbsent(name, n -> new Family(type, help)).samples;
+            samples.removeIf(gauge -> Objects.equals(gauge.labels, labels));
+            samples.add(new Gauge(labels, value));
+        }
+    }
+
+    /**
+     * Register gauges for the thread pools and caches of a JDA instance.
+     *
+     * @param jda The JDA instance.
+     * @param labels Labels identifying the instance, or null if there is only one.
+     */
+    void registerJDA(JDA jda, String labels) {
+        this.registerPool("rate_limit", jda.getRateLimitPool(), labels);
+        this.registerPool("gateway", jda.getGatewayPool(), labels);
+        this.registerPool("callback", jda.getCallbackPool(), labels);
+        this.gauge("baclava_jda_cached_guilds", "Guilds in the JDA cache.", labels,
+                () -> jda.getGuildCache().size());
+        this.gauge("baclava_jda_cached_users", "Users in the JDA cache.", labels,
+                () -> jda.getUserCache().size());
+        this.gauge("baclava_gateway_ping_seconds", "Last heartbeat round trip.", labels,
+                () -> jda.getGatewayPing() / 1e3);
+    }
+
+    /**
+     * Register the JDA gauges of a shard, along with its connection status and event rate.
+     */
+    void registerShard(Shard shard) {
+        String labels = shard.getLabels();
+        this.registerJDA(shard.jda, labels);
+        this.gauge("baclava_shard_connected", "1 if the shard is connected to the gateway.", labels,
+                () -> shard.jda.getStatus() == JDA.Status.CONNECTED ? 1 : 0);
+        this.gauge("baclava_shard_event_rate", "Gateway events per second over the last minute.", labels,
+                shard.events::getRate);
+    }
+
+    /**
+     * Register gauges for the queue and threads of an executor, if it is a {@link ThreadPoolExecutor}.
+     */
+    void registerPool(String name, ExecutorService pool, String labels) {
+        if (!(pool instanceof ThreadPoolExecutor)) return;
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) pool;
+        String poolLabels = "pool=\"" + name + "\"" + (labels == null ? "" : "," + labels);
+        this.gauge("baclava_executor_queue_depth", "Tasks waiting in the executor queue.", poolLabels,
+                () -> executor.getQueue().size());
+        this.gauge("baclava_executor_active_threads", "Threads currently running a task.", poolLabels,
+                executor::getActiveCount);
+        // A scheduled executor never grows past its core size, its maximum is Integer.MAX_VALUE.
+        boolean scheduled = executor instanceof ScheduledThreadPoolExecutor;
+        this.gauge("baclava_executor_saturation", "Active threads over the pool size.", poolLabels, () -> {
+            int size = scheduled ? executor.getCorePoolSize() : executor.getMaximumPoolSize();
+            return size == 0 ? 0 : (double) executor.getActiveCount() / size;
+        });
+    }
+
+    void write(PrometheusWriter writer) {
+        writer.family("baclava_commands_total", "counter", "Command invocations by outcome.");
+        this.commands.forEach((command, metrics) -> {
+            for (Outcome outcome : Outcome.values())
+                writer.sample("baclava_commands_total").label("command", command).label("outcome", outcome.label)
+                        .value(metrics.outcomes[outcome.ordinal()].sum());
+        });
+
+        writer.family("baclava_command_duration_seconds", "histogram", "Time spent executing commands.");
+        this.commands.forEach((command, metrics) -> {
+            long cumulative = 0;
+            for (int i = 0; i < metrics.buckets.length; i++) {
+                cumulative += metrics.buckets[i].sum();
+                writer.sample("baclava_command_duration_seconds", "_bucket").label("command", command)
+                        .label("le", BUCKET_LABELS[i]).value(cumulative);
+            }
+            writer.sample("baclava_command_duration_seconds", "_sum").label("command", command)
+                    .seconds(metrics.totalNanos.sum());
+            writer.sample("baclava_command_duration_seconds", "_count").label("command", command)
+                    .value(metrics.count.sum());
+        });
+
+        writer.family("baclava_command_lookups_total", "counter", "Command lookups by result.");
+        writer.sample("baclava_command_lookups_total").label("result", "hit").value(this.lookupHits.sum());
+        writer.sample("baclava_command_lookups_total").label("result", "miss").value(this.lookupMisses.sum());
+
+        writer.family("baclava_gateway_events_total", "counter", "Events received from the gateway by type.");
+        this.gatewayEvents.forEach((type, events) ->
+                writer.sample("baclava_gateway_events_total").label("type", type.getSimpleName()).value(events.sum()));
+
+        List<Map.Entry<String, Family>> families;
+        synchronized (this.gauges) {
+            families = new ArrayList<>(this.gauges.entrySet());
+        }
+        for (Map.Entry<String, Family> family : families) {
+            writer.family(family.getKey(), family.getValue().type, family.getValue().help);
+            for (Gauge gauge : family.getValue().samples)
+                writer.sample(family.getKey()).labels(gauge.labels).value(gauge.value.getAsDouble());
+        }
+    }
+
+    private static class CommandMetrics {
+        final LongAdder[] outcomes = adders(Outcome.values().length);
+        final LongAdder[] buckets = adders(LATENCY_BUCKETS.length + 1);
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+
+        private static LongAdder[] adders(int length) {
+            LongAdder[] adders = new LongAdder[length];
+            for (int i = 0; i < length; i++) adders[i] = new LongAdder();
+            return adders;
+        }
+    }
+
+    private static class Family {
+        final String type;
+        final String help;
+        final List<Gauge> samples = new CopyOnWriteArrayList<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private static class Gauge {
+        final String labels;
+        final DoubleSupplier value;
+
+        Gauge(String labels, DoubleSupplier value) {
+            this.labels = labels;
+            this.value = value;
+        }
+    }
+}
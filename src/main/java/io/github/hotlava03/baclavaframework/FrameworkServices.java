@@ -0,0 +1,105 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything built once per framework and shared by all shards: metrics, sinks and executors.
+ * Optional services are null when disabled. Filled by {@link BaclavaFrameworkBuilder}.
+ */
+class FrameworkServices {
+    final FrameworkMetrics metrics = new FrameworkMetrics();
+    final InFlightTracker inFlight = new InFlightTracker();
+    CommandTracer tracer;
+    AuditLog audit;
+    UsageStatsStore usageStats;
+    MetricsServer metricsServer;
+    EventWaiter waiter;
+    TaskScheduler scheduler;
+    PluginManager plugins;
+    QuotaCache quotas;
+    SettingsStore settings;
+    CacheAggregator aggregator;
+    /**
+     * The caches chosen when connecting, or null when offline.
+     */
+    CacheSettings cache;
+    /**
+     * Tracks the replies of commands to edit them when their message is edited, or null to ignore edits.
+     */
+    ReplyTracker replies;
+    /**
+     * Limits the replies waiting on Discord, or null to send them right away.
+     */
+    OutboundLimiter outbound;
+    /**
+     * Where to write the startup snapshot at shutdown, or null to not write one.
+     */
+    Path snapshotFile;
+    /**
+     * The framework these services belong to, set once it is built.
+     */
+    BaclavaFramework framework;
+    /**
+     * Runs commands, or null to run them on the event thread.
+     */
+    ExecutorService commandExecutor;
+    /**
+     * Executors created by the framework itself, shut down with it.
+     */
+    final List<ExecutorService> ownedExecutors = new ArrayList<>();
+
+    /**
+     * Stop the waiter and scheduler, write out the sinks and stop the metrics server.
+     *
+     * @param deadline The {@link System#nanoTime()} to stop waiting for the audit writer at.
+     * @return True if everything was written out.
+     */
+    boolean closeSinks(long deadline) {
+        if (this.waiter != null) this.waiter.stop();
+        if (this.scheduler != null) this.scheduler.close();
+        if (this.usageStats != null) this.usageStats.close();
+        boolean flushed = this.audit == null
+                || this.audit.close(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        if (this.metricsServer != null) this.metricsServer.stop();
+        if (this.quotas != null) this.quotas.close();
+        return flushed;
+    }
+
+    /**
+     * Shut down the owned executors, interrupting whatever still runs at the deadline.
+     */
+    void shutdownExecutors(long deadline) {
+        for (ExecutorService executor : this.ownedExecutors) executor.shutdown();
+        for (ExecutorService executor : this.ownedExecutors) {
+            try {
+                if (!executor.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS))
+                    executor.shutdownNow();
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
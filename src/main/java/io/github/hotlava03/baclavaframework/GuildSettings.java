@@ -0,0 +1,105 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The settings of a guild, as they were when fetched. Reading them never leaves memory; values are
+ * parsed once per snapshot. Changes made with {@link #set(SettingKey key, Object value)} are
+ * visible to the settings fetched afterwards.
+ *
+ * @see CommandEvent#getSettings()
+ */
+public class GuildSettings {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GuildSettings.class);
+
+    private final SettingsStore store;
+    private final long guildId;
+    private final Map<String, String> raw;
+    private final Map<SettingKey<?>, Object> parsed = new ConcurrentHashMap<>();
+
+    GuildSettings(SettingsStore store, long guildId, Map<String, String> raw) {
+        this.store = store;
+        this.guildId = guildId;
+        this.raw = Collections.unmodifiableMap(raw);
+    }
+
+    /**
+     * @param key The setting.
+     * @param <T> The setting type.
+     * @return The value of the setting, or its default if the guild didn't set it or the stored text is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(SettingKey<T> key) {
+        Object value = this.parsed.get(key);
+        if (value != null) return (T) value;
+        String text = this.raw.get(key.getName());
+        if (text == null) return key.getDefaultValue();
+        T parsedValue;
+        try {
+            parsedValue = key.parse(text);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Invalid value '" + text + "' for " + key.getName() + " in guild " + this.guildId + ".");
+            parsedValue = key.getDefaultValue();
+        }
+        if (parsedValue != null) this.parsed.put(key, parsedValue);
+        return parsedValue;
+    }
+
+    /**
+     * @param key The setting.
+     * @return True if the guild set the setting.
+     */
+    public boolean isSet(SettingKey<?> key) {
+        return this.raw.containsKey(key.getName());
+    }
+
+    /**
+     * Change a setting of this guild.
+     *
+     * @param key The setting.
+     * @param value The new value, or null to go back to the default.
+     * @param <T> The setting type.
+     * @throws IOException If the setting can't be written.
+     */
+    public <T> void set(SettingKey<T> key, T value) throws IOException {
+        this.store.set(this.guildId, key, value);
+    }
+
+    /**
+     * @return The guild ID.
+     */
+    public long getGuildId() {
+        return guildId;
+    }
+
+    /**
+     * @return Every setting the guild set, as stored.
+     */
+    public Map<String, String> asMap() {
+        return raw;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Approximate timer for large amounts of timeouts that mostly get cancelled. Timeouts are
+ * hashed into a ring of buckets by their deadline, and a single thread advances one bucket
+ * per tick, expiring the timeouts whose round has come. Scheduling and cancelling are O(1)
+ * and lock free, timeouts fire up to one tick late.
+ * <p>
+ * Only the worker thread touches the buckets. Other threads hand timeouts and cancellations
+ * over through queues, drained at each tick. The worker starts with the first timeout.
+ */
+class HashedWheelTimer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimer.class);
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final Executor executor;
+    private final String name;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger state = new AtomicInteger();
+    private volatile long startNanos;
+    private long tick;
+    private Thread worker;
+
+    /**
+     * @param name The worker thread name.
+     * @param tickDuration The timer resolution.
+     * @param unit The tick duration unit.
+     * @param wheelSize The amount of buckets, rounded up to a power of two. Should cover the usual timeout.
+     * @param executor Runs expired tasks, so slow tasks don't delay the next tick.
+     */
+    HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize, Executor executor) {
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) this.wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        this.executor = executor;
+        this.name = name;
+    }
+
+    /**
+     * Run a task after a delay.
+     *
+     * @return The handle to cancel the task with.
+     * @throws IllegalStateException If the timer was stopped.
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        this.start();
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - this.startNanos + unit.toNanos(delay));
+        this.added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the worker. Pending timeouts never fire.
+     */
+    void stop() {
+        if (this.state.getAndSet(2) != 1) return;
+        this.worker.interrupt();
+    }
+
+    /**
+     * @return The timeouts scheduled and not yet expired or cancelled. Approximate.
+     */
+    long getPending() {
+        long pending = this.added.size();
+        for (Bucket bucket : this.wheel) pending += bucket.size;
+        return pending;
+    }
+
+    private void start() {
+        int current = this.state.get();
+        if (current == 2) throw new IllegalStateException("The timer was stopped.");
+        if (current == 1 || !this.state.compareAndSet(0, 1)) {
+            // Another thread is starting it, wait until the start time is visible.
+            while (this.startNanos == 0 && this.state.get() == 1) Thread.yield();
+            return;
+        }
+        this.worker = new Thread(this::run, this.name);
+        this.worker.setDaemon(true);
+        this.startNanos = System.nanoTime();
+        this.worker.start();
+    }
+
+    private void run() {
+        while (this.state.get() == 1) {
+            long deadline = this.tickNanos * (this.tick + 1);
+            long sleep = deadline - (System.nanoTime() - this.startNanos);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (this.state.get() != 1) return;
+                    continue;
+                }
+            }
+
+            this.removeCancelled();
+            this.transferAdded();
+            Bucket bucket = this.wheel[(int) (this.tick & this.mask)];
+            bucket.expire(deadline);
+            this.tick++;
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = this.added.poll();
+            if (timeout == null) return;
+            if (timeout.state.get() != Timeout.PENDING) continue;
+            long ticks = Math.max(timeout.deadline / this.tickNanos, this.tick);
+            timeout.rounds = (ticks - this.tick) / this.wheel.length;
+            this.wheel[(int) (ticks & this.mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = this.cancelled.poll()) != null)
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+    }
+
+    private void fire(Timeout timeout) {
+        try {
+            this.executor.execute(timeout.task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("A timeout was rejected by its executor and will not run.");
+        } catch (RuntimeException e) {
+            LOGGER.error("A timeout threw an exception.", e);
+        }
+    }
+
+    /**
+     * A task scheduled on a {@link HashedWheelTimer}.
+     */
+    static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long rounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return True if the task won't run because of this call.
+         */
+        boolean cancel() {
+            if (!this.state.compareAndSet(PENDING, CANCELLED)) return false;
+            this.timer.cancelled.add(this);
+            return true;
+        }
+
+        boolean isExpired() {
+            return this.state.get() == EXPIRED;
+        }
+    }
+
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+        private int size;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (this.head == null) {
+                this.head = this.tail = timeout;
+            } else {
+                this.tail.next = timeout;
+                timeout.prev = this.tail;
+                this.tail = timeout;
+            }
+            this.size++;
+        }
+
+        void expire(long deadline) {
+            Timeout timeout = this.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+                    this.remove(timeout);
+                    if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) fire(timeout);
+                } else if (timeout.state.get() == Timeout.CANCELLED) {
+                    this.remove(timeout);
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) return;
+            if (timeout.prev != null) timeout.prev.next = timeout.next;
+            else this.head = timeout.next;
+            if (timeout.next != null) timeout.next.prev = timeout.prev;
+            else this.tail = timeout.prev;
+            timeout.next = timeout.prev = null;
+            timeout.bucket = null;
+            this.size--;
+        }
+    }
+}
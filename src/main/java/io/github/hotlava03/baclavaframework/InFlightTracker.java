@@ -0,0 +1,140 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the commands and replies in flight, and stops admitting commands once the framework
+ * shuts down. Striped counters keep the dispatch path free of contention; draining polls them.
+ */
+class InFlightTracker {
+    private final LongAdder commandsStarted = new LongAdder();
+    private final LongAdder commandsFinished = new LongAdder();
+    private final LongAdder repliesStarted = new LongAdder();
+    private final LongAdder repliesFinished = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    // Commands running on each thread, so a command shutting the framework down doesn't wait for itself.
+    private final ThreadLocal<int[]> running = ThreadLocal.withInitial(() -> new int[1]);
+    private volatile boolean draining;
+
+    /**
+     * Start a command, unless the framework is shutting down.
+     *
+     * @return False if the command must be dropped.
+     */
+    boolean admitCommand() {
+        if (this.draining) {
+            this.refused.increment();
+            return false;
+        }
+        this.commandsStarted.increment();
+        return true;
+    }
+
+    /**
+     * Start work belonging to an already admitted command, such as a queued invocation.
+     */
+    void startCommand() {
+        this.commandsStarted.increment();
+    }
+
+    void finishCommand() {
+        this.commandsFinished.increment();
+    }
+
+    /**
+     * Run a started command on this thread, then finish it.
+     */
+    void runCommand(Runnable command) {
+        int[] running = this.running.get();
+        running[0]++;
+        try {
+            command.run();
+        } finally {
+            running[0]--;
+            this.finishCommand();
+        }
+    }
+
+    /**
+     * @return The commands running on the calling thread, which can't finish while it waits.
+     */
+    int getCommandsOnThread() {
+        return this.running.get()[0];
+    }
+
+    void startReply() {
+        this.repliesStarted.increment();
+    }
+
+    void finishReply() {
+        this.repliesFinished.increment();
+    }
+
+    void stopAdmitting() {
+        this.draining = true;
+    }
+
+    long getCommands() {
+        // Read finished first, so a command finishing in between can't make the count negative.
+        long finished = this.commandsFinished.sum();
+        return this.commandsStarted.sum() - finished;
+    }
+
+    long getReplies() {
+        long finished = this.repliesFinished.sum();
+        return this.repliesStarted.sum() - finished;
+    }
+
+    long getRepliesFinished() {
+        return this.repliesFinished.sum();
+    }
+
+    long getRefused() {
+        return this.refused.sum();
+    }
+
+    /**
+     * Wait until no command or reply is in flight, besides the commands of the calling thread.
+     *
+     * @param deadline The {@link System#nanoTime()} to give up at.
+     * @return True if nothing is left in flight.
+     */
+    boolean awaitIdle(long deadline) {
+        int own = this.getCommandsOnThread();
+        while (this.getCommands() > own || this.getReplies() > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_in_flight_commands", "Commands admitted and not yet finished.", null, this::getCommands);
+        metrics.gauge("baclava_in_flight_replies", "Replies queued and not yet sent or failed.", null, this::getReplies);
+    }
+}
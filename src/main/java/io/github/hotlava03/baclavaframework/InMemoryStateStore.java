@@ -0,0 +1,73 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link StateStore} counting in this process only. Ended windows are swept every few thousand acquisitions.
+ */
+public class InMemoryStateStore implements StateStore {
+    private static final int SWEEP_INTERVAL = 4096;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private final AtomicInteger acquisitions = new AtomicInteger();
+
+    @Override
+    public CompletableFuture<Quota> acquire(String key, long permits, long limit, long windowMillis) {
+        return CompletableFuture.completedFuture(this.take(key, permits, limit, windowMillis));
+    }
+
+    /**
+     * Same as {@link #acquire(String key, long permits, long limit, long windowMillis)}, without the future.
+     */
+    public Quota take(String key, long permits, long limit, long windowMillis) {
+        long now = System.currentTimeMillis();
+        Quota[] quota = new Quota[1];
+        this.windows.compute(key, (k, window) -> {
+            if (window == null || window.end <= now) window = new Window(now + windowMillis);
+            long granted = Math.max(0, Math.min(permits, limit - window.used));
+            window.used += granted;
+            quota[0] = new Quota(granted, window.end - now);
+            return window;
+        });
+        if (this.acquisitions.incrementAndGet() % SWEEP_INTERVAL == 0)
+            this.windows.values().removeIf(window -> window.end <= now);
+        return quota[0];
+    }
+
+    /**
+     * @return The amount of keys whose window may still be running.
+     */
+    public int size() {
+        return this.windows.size();
+    }
+
+    private static class Window {
+        final long end;
+        long used;
+
+        Window(long end) {
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+/**
+ * Stage timings of a sampled command invocation, committed as a {@link CommandInvocationEvent}.
+ * The command handler only ever sees this class, so it doesn't refer to the flight recorder
+ * classes, which are missing before Java 8u262.
+ *
+ * @see CommandTracer
+ */
+final class InvocationTrace {
+    String command;
+    String outcome;
+    long guildId;
+    long channelId;
+    long receive;
+    long prefixMatch;
+    long tokenize;
+    long lookup;
+    long permissionCheck;
+    long execute;
+    long replySend;
+
+    private final Object event;
+    private long lastLap;
+
+    /**
+     * @param event The begun {@link CommandInvocationEvent}.
+     * @param prefixMatch The time spent matching the prefix, before the event was created.
+     */
+    InvocationTrace(Object event, long prefixMatch) {
+        this.event = event;
+        this.prefixMatch = prefixMatch;
+        this.lastLap = System.nanoTime();
+    }
+
+    /**
+     * @return Nanoseconds elapsed since the previous call, or since the trace was created.
+     */
+    long lap() {
+        long now = System.nanoTime();
+        long elapsed = now - this.lastLap;
+        this.lastLap = now;
+        return elapsed;
+    }
+
+    /**
+     * Close and commit the event.
+     */
+    void commit() {
+        CommandTracer.Events.commitInvocation(this.event, this);
+    }
+
+    /**
+     * A reply of a sampled invocation, committed as a {@link CommandReplyEvent}.
+     */
+    static final class Reply {
+        private final Object event;
+
+        Reply(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * Close and commit the event.
+         *
+         * @param success Whether Discord accepted the reply.
+         */
+        void finish(boolean success) {
+            CommandTracer.Events.finishReply(this.event, success);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+/**
+ * Stands for a plugin command until its first invocation, which loads and instantiates
+ * the real command class. The name, aliases and category come from the plugin metadata.
+ */
+class LazyCommand extends Command {
+    private final Plugin plugin;
+    private final String className;
+    private volatile Command delegate;
+
+    LazyCommand(Plugin plugin, String className, String category, String[] aliases, String usage, String examples,
+                String[] flags, CacheRequirement[] cacheRequirements) {
+        this.plugin = plugin;
+        this.className = className;
+        this.setCategory(category)
+                .setAliases(aliases)
+                .setUsage(usage)
+                .setExamples(examples)
+                .setFlags(flags)
+                .setCacheRequirements(cacheRequirements);
+    }
+
+    @Override
+    String execute(CommandEvent e) {
+        this.plugin.running.incrementAndGet();
+        try {
+            return this.getDelegate().execute(e);
+        } finally {
+            this.plugin.running.decrementAndGet();
+        }
+    }
+
+    @Override
+    protected String onCommand(CommandEvent e) {
+        return this.getDelegate().onCommand(e);
+    }
+
+    /**
+     * The real command sets its bulkhead, circuit breaker and rate limit in its own constructor,
+     * so it is instantiated as soon as those are needed. Invocations still go through this
+     * command, which counts them for {@link PluginManager#unload(String name)}.
+     *
+     * @throws IllegalStateException If the command class can't be instantiated.
+     */
+    @Override
+    Command resolve() {
+        this.getDelegate();
+        return this;
+    }
+
+    /**
+     * Instantiate the real command now rather than on its first invocation.
+     */
+    void preload() {
+        this.getDelegate();
+    }
+
+    String getClassName() {
+        return this.className;
+    }
+
+    boolean isInstantiated() {
+        return this.delegate != null;
+    }
+
+    private Command getDelegate() {
+        Command delegate = this.delegate;
+        if (delegate != null) return delegate;
+        synchronized (this) {
+            if (this.delegate == null) {
+                Command command = this.plugin.instantiate(this.className);
+                command.name = this.name;
+                this.bulkhead = command.bulkhead;
+                this.circuitBreaker = command.circuitBreaker;
+                this.rateLimit = command.rateLimit;
+                this.rateLimitWindow = command.rateLimitWindow;
+                this.setFallbackReply(command.getFallbackReply());
+                this.setRateLimitReply(command.getRateLimitReply());
+                this.delegate = command;
+            }
+            return this.delegate;
+        }
+    }
+}
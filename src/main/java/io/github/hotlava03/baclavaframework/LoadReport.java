@@ -0,0 +1,127 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of a {@link ReplayLoadGenerator} run. Latencies are measured from the moment a
+ * message was scheduled to be sent until the command handler finished with it, so a
+ * pipeline that cannot keep up with the configured rate shows it in the percentiles.
+ *
+ * @see ReplayLoadGenerator#run()
+ */
+public class LoadReport {
+    private final int messages;
+    private final int dropped;
+    private final long durationNanos;
+    private final long[] latencies;
+    private final long allocatedBytes;
+    private final long replies;
+
+    LoadReport(int messages, int dropped, long durationNanos, long[] latencies, long allocatedBytes, long replies) {
+        this.messages = messages;
+        this.dropped = dropped;
+        this.durationNanos = durationNanos;
+        this.latencies = latencies;
+        this.allocatedBytes = allocatedBytes;
+        this.replies = replies;
+        Arrays.sort(this.latencies);
+    }
+
+    /**
+     * @return The amount of dispatched messages.
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return The amount of messages dropped before reaching the command handler, for example
+     *         because they didn't start with the prefix or the command executor was saturated.
+     *         They have no latency.
+     */
+    public int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The amount of replies sent by commands.
+     */
+    public long getReplies() {
+        return replies;
+    }
+
+    /**
+     * @param unit The unit to get the duration in.
+     * @return The time from the first dispatch until the last message was handled.
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(this.durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The handled messages per second.
+     */
+    public double getThroughput() {
+        return this.durationNanos == 0 ? 0 : (this.messages - this.dropped) * 1e9 / this.durationNanos;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @param unit The unit to get the latency in.
+     * @return The latency at that percentile.
+     * @throws IllegalArgumentException If percentile isn't between 0 and 100.
+     */
+    public long getLatency(double percentile, TimeUnit unit) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+        if (this.latencies.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100 * this.latencies.length) - 1;
+        return unit.convert(this.latencies[Math.max(index, 0)], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The bytes allocated by all threads during the run, or -1 if the JVM can't tell.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return The bytes allocated per message, or -1 if the JVM can't tell.
+     */
+    public double getAllocatedBytesPerMessage() {
+        if (this.allocatedBytes < 0 || this.messages == 0) return -1;
+        return (double) this.allocatedBytes / this.messages;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d messages in %d ms (%.1f msg/s), %d dropped, %d replies%n"
+                        + "latency p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus%n"
+                        + "allocated %d bytes (%.1f bytes/msg)",
+                this.messages, this.getDuration(TimeUnit.MILLISECONDS), this.getThroughput(), this.dropped, this.replies,
+                this.getLatency(50, TimeUnit.MICROSECONDS), this.getLatency(90, TimeUnit.MICROSECONDS),
+                this.getLatency(99, TimeUnit.MICROSECONDS), this.getLatency(99.9, TimeUnit.MICROSECONDS),
+                this.getLatency(100, TimeUnit.MICROSECONDS),
+                this.allocatedBytes, this.getAllocatedBytesPerMessage());
+    }
+}
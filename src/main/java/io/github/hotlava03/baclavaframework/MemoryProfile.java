@@ -0,0 +1,42 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+/**
+ * How much of Discord JDA keeps in memory. Members, presences and voice states dominate
+ * the heap of bots in large guilds, while most commands never look at them.
+ *
+ * @see BaclavaFrameworkBuilder#setMemoryProfile(MemoryProfile profile)
+ */
+public enum MemoryProfile {
+    /**
+     * Cache as little as possible, even if a command declares it needs more:
+     * no member chunking, presences, voice states or emotes.
+     */
+    LIGHT,
+    /**
+     * Only cache what registered commands declare they need through
+     * {@link Command#setCacheRequirements(CacheRequirement...)}.
+     */
+    COMMANDS_ONLY,
+    /**
+     * JDA's defaults: every member, presence, voice state and emote. The default.
+     */
+    FULL
+}
@@ -0,0 +1,81 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link FrameworkMetrics} on {@code /metrics} through the JDK's built-in HTTP server,
+ * from a single daemon thread. Every scrape is written to the same buffer.
+ */
+class MetricsServer {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final FrameworkMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final PrometheusWriter writer = new PrometheusWriter(INITIAL_BUFFER_SIZE);
+
+    MetricsServer(InetSocketAddress address, FrameworkMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "baclava-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/metrics", this::handle);
+    }
+
+    void start() {
+        this.server.start();
+    }
+
+    void stop() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            // Only the single server thread touches the writer.
+            this.writer.reset();
+            this.metrics.write(this.writer);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, this.writer.size());
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(this.writer.getBuffer(), 0, this.writer.size());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
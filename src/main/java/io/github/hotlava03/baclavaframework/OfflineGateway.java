@@ -0,0 +1,349 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import club.minnced.jda.reactor.ReactiveEventManager;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.*;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-process replacement for the Discord gateway, used by
+ * {@link BaclavaFrameworkBuilder#buildOffline(OfflineGateway gateway)}.<br>
+ * Messages passed to {@link OfflineGateway#dispatch(long guildId, long channelId, long userId, String content)}
+ * go through the exact same event manager and command handler as real ones, backed by
+ * stubbed JDA entities. Anything sent through those entities ends up in the {@link ReplySink}.<br><br>
+ *
+ * Stubbed entities only know their IDs, names and relations (message, author, member, channel, guild).
+ * Everything else returns null, 0 or false, so commands relying on other JDA data may not behave
+ * as they would online.
+ *
+ * @see ReplayLoadGenerator
+ */
+public class OfflineGateway {
+    private static final long DISCORD_EPOCH = 1420070400000L;
+
+    private final ReplySink sink;
+    private final JDA jda;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong snowflakes = new AtomicLong();
+    private final Map<Long, User> users = new ConcurrentHashMap<>();
+    private final Map<Long, Guild> guilds = new ConcurrentHashMap<>();
+    private final Map<Long, MessageChannel> channels = new ConcurrentHashMap<>();
+    private ReactiveEventManager manager;
+    private DispatchListener dispatchListener;
+
+    /**
+     * Receives everything sent through the stubbed entities.
+     */
+    @FunctionalInterface
+    public interface ReplySink {
+        /**
+         * @param channelId The ID of the channel the message was sent to.
+         * @param content The sent content: a {@link CharSequence}, a {@link MessageEmbed} or a {@link Message}.
+         */
+        void onReply(long channelId, Object content);
+    }
+
+    /**
+     * @param sink Where all messages sent by the bot go.
+     */
+    public OfflineGateway(ReplySink sink) {
+        this.sink = sink;
+        this.jda = proxy(JDA.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getStatus":
+                    return JDA.Status.CONNECTED;
+                case "getSelfUser":
+                    return this.getUser(0);
+                case "getGuildById":
+                    return this.guilds.get(args[0] instanceof Long ? (Long) args[0] : Long.parseLong(args[0].toString()));
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    /**
+     * Dispatch a message as if it was received from Discord. This returns once the event manager
+     * accepted the event, which may be before the command ran depending on its scheduler.
+     *
+     * @param guildId The guild ID, or 0 for a direct message.
+     * @param channelId The channel ID.
+     * @param userId The author ID.
+     * @param content The raw message content.
+     * @throws IllegalStateException If no framework was built with this gateway yet.
+     */
+    public void dispatch(long guildId, long channelId, long userId, String content) {
+        this.dispatch(this.sequence.getAndIncrement(), guildId, channelId, userId, content);
+    }
+
+    /**
+     * @return The stubbed JDA instance.
+     */
+    public JDA getJDA() {
+        return this.jda;
+    }
+
+    void dispatch(long responseNumber, long guildId, long channelId, long userId, String content) {
+        if (this.manager == null)
+            throw new IllegalStateException("Build a framework with this gateway before dispatching messages.");
+        MessageChannel channel = this.getChannel(guildId, channelId);
+        Message message = this.createMessage(this.nextSnowflake(), channel, this.getUser(userId), content);
+        this.manager.handle(new MessageReceivedEvent(this.jda, responseNumber, message));
+    }
+
+    void attach(ReactiveEventManager manager) {
+        this.manager = manager;
+    }
+
+    void setDispatchListener(DispatchListener listener) {
+        this.dispatchListener = listener;
+    }
+
+    /**
+     * Wrap the command handler so the dispatch listener hears about finished dispatches.
+     */
+    Consumer<MessageReceivedEvent> track(Consumer<MessageReceivedEvent> handler) {
+        return e -> {
+            try {
+                handler.accept(e);
+            } finally {
+                DispatchListener listener = this.dispatchListener;
+                if (listener != null) listener.onDispatched(e, true);
+            }
+        };
+    }
+
+    /**
+     * Tell the dispatch listener about a message dropped before reaching the command handler.
+     */
+    void drop(MessageReceivedEvent e) {
+        DispatchListener listener = this.dispatchListener;
+        if (listener != null) listener.onDispatched(e, false);
+    }
+
+    /**
+     * Hears about every dispatched message once it is done with.
+     */
+    @FunctionalInterface
+    interface DispatchListener {
+        /**
+         * @param e The dispatched message.
+         * @param handled False if it was dropped before reaching the command handler, for
+         *                example because the command executor was saturated.
+         */
+        void onDispatched(MessageReceivedEvent e, boolean handled);
+    }
+
+    private long nextSnowflake() {
+        return ((System.currentTimeMillis() - DISCORD_EPOCH) << 22) | (this.snowflakes.getAndIncrement() & 0x3FFFFF);
+    }
+
+    /**
+     * @param id The user ID, 0 being the bot itself.
+     */
+    private User getUser(long id) {
+        return this.users.computeIfAbsent(id, userId -> {
+            Class<? extends User> type = userId == 0 ? SelfUser.class : User.class;
+            return proxy(type, (method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return "user-" + userId;
+                    case "getJDA":
+                        return this.jda;
+                    default:
+                        return snowflake(method, userId);
+                }
+            });
+        });
+    }
+
+    private Guild getGuild(long id) {
+        return this.guilds.computeIfAbsent(id, guildId -> proxy(Guild.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return "guild-" + guildId;
+                case "getJDA":
+                    return this.jda;
+                case "getMember":
+                    return this.createMember(this.guilds.get(guildId), (User) args[0]);
+                default:
+                    return snowflake(method, guildId);
+            }
+        }));
+    }
+
+    private MessageChannel getChannel(long guildId, long channelId) {
+        return this.channels.computeIfAbsent(channelId, id -> {
+            Guild guild = guildId == 0 ? null : this.getGuild(guildId);
+            Class<? extends MessageChannel> type = guild == null ? PrivateChannel.class : TextChannel.class;
+            return proxy(type, (method, args) -> {
+                switch (method.getName()) {
+                    case "getType":
+                        return guild == null ? ChannelType.PRIVATE : ChannelType.TEXT;
+                    case "getGuild":
+                        return guild;
+                    case "getName":
+                        return "channel-" + id;
+                    case "getJDA":
+                        return this.jda;
+                    case "sendMessage":
+                    case "editMessageById":
+                        return this.createAction(this.channels.get(id), args[args.length - 1]);
+                    default:
+                        return snowflake(method, id);
+                }
+            });
+        });
+    }
+
+    private Member createMember(Guild guild, User user) {
+        return proxy(Member.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUser":
+                    return user;
+                case "getGuild":
+                    return guild;
+                case "getJDA":
+                    return this.jda;
+                default:
+                    return snowflake(method, user.getIdLong());
+            }
+        });
+    }
+
+    private Message createMessage(long id, MessageChannel channel, User author, Object content) {
+        // Created on first use, commands commonly ask for it several times.
+        Member[] member = new Member[1];
+        return proxy(Message.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getContentRaw":
+                case "getContentDisplay":
+                case "getContentStripped":
+                    return content instanceof CharSequence ? content.toString() : "";
+                case "getAuthor":
+                    return author;
+                case "getMember":
+                    if (channel.getType() != ChannelType.TEXT) return null;
+                    if (member[0] == null) member[0] = ((TextChannel) channel).getGuild().getMember(author);
+                    return member[0];
+                case "getChannel":
+                    return channel;
+                case "getTextChannel":
+                    return channel.getType() == ChannelType.TEXT ? channel : null;
+                case "getGuild":
+                    return channel.getType() == ChannelType.TEXT ? ((TextChannel) channel).getGuild() : null;
+                case "getChannelType":
+                    return channel.getType();
+                case "isFromType":
+                    return channel.getType() == args[0];
+                case "isFromGuild":
+                    return channel.getType() == ChannelType.TEXT;
+                case "getJDA":
+                    return this.jda;
+                case "editMessage":
+                    return this.createAction(channel, args[0]);
+                default:
+                    return snowflake(method, id);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private MessageAction createAction(MessageChannel channel, Object content) {
+        return proxy(MessageAction.class, (method, args) -> {
+            if (!method.getName().equals("queue")) return defaultValue(method);
+            this.sink.onReply(channel.getIdLong(), content);
+            if (args != null && args.length > 0 && args[0] != null) {
+                User self = this.getUser(0);
+                ((Consumer<Object>) args[0]).accept(this.createMessage(this.nextSnowflake(), channel, self, content));
+            }
+            return null;
+        });
+    }
+
+    private static Object snowflake(Method method, long id) {
+        switch (method.getName()) {
+            case "getIdLong":
+                return id;
+            case "getId":
+                return Long.toUnsignedString(id);
+            case "getTimeCreated":
+                return OffsetDateTime.ofInstant(Instant.ofEpochMilli((id >>> 22) + DISCORD_EPOCH), ZoneOffset.UTC);
+            default:
+                return defaultValue(method);
+        }
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == long.class) return 0L;
+        if (type == int.class) return 0;
+        if (type == double.class) return 0D;
+        if (type == float.class) return 0F;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == char.class) return '\0';
+        return null;
+    }
+
+    @FunctionalInterface
+    private interface Answer {
+        Object answer(Method method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return type.getSimpleName() + "(offline)";
+                    default:
+                        Object result = answer.answer(method, args);
+                        // Builder style calls on actions (append, embed, tts...) keep chaining.
+                        if (result == null && proxy instanceof RestAction && method.getReturnType().isInstance(proxy))
+                            return proxy;
+                        return result;
+                }
+            }
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
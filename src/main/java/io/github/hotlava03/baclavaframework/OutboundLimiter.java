@@ -0,0 +1,284 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Limits how many replies are waiting on Discord at once, so a slowdown or a wave of 5xx backs
+ * up here, in a bounded queue, instead of in JDA's requester. The limit adapts like TCP congestion
+ * control (AIMD): it grows by about one per round trip while sends come back within twice the
+ * lowest recent latency, and shrinks by a tenth, at most once per round trip, when they come back
+ * slower or fail with a server error.
+ * <p>
+ * Discord rate limits messages per channel, and JDA retries 429s itself, so a busy channel only
+ * shows up as slow sends in that channel. To keep one channel from shrinking the limit for every
+ * other, each channel has at most {@value #CHANNEL_LIMIT} sends in flight, its further sends wait
+ * in the channel without holding a permit, and only the latency of sends that had their channel
+ * to themselves feeds the limit. Channels with waiting sends are served in turn.
+ * <p>
+ * Over the limit, replies wait in the queue and best-effort replies are dropped. Replies are also
+ * dropped once the queue is full, or once a single channel holds a tenth of it.
+ */
+class OutboundLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboundLimiter.class);
+    private static final double MIN_LIMIT = 1;
+    private static final double BACKOFF = 0.9;
+    private static final double TOLERANCE = 2;
+    private static final long BASELINE_WINDOW = TimeUnit.SECONDS.toNanos(60);
+    static final int CHANNEL_LIMIT = 5;
+
+    private final double maxLimit;
+    private final int maxQueued;
+    private final int maxChannelQueued;
+    private final Map<Long, Channel> channels = new HashMap<>();
+    // Channels with waiting sends and room for one more, in the order they are served.
+    private final Deque<Channel> ready = new ArrayDeque<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long minRtt = Long.MAX_VALUE;
+    private long nextMinRtt = Long.MAX_VALUE;
+    private long baselineAt = System.nanoTime();
+    private double smoothedRtt;
+    private long decreasedAt = System.nanoTime();
+
+    /**
+     * @param maxLimit The highest the limit may grow to.
+     * @param maxQueued The amount of replies waiting before they are dropped.
+     */
+    OutboundLimiter(int maxLimit, int maxQueued) {
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.maxChannelQueued = Math.max(1, maxQueued / 10);
+        this.limit = this.getInitialLimit();
+    }
+
+    /**
+     * Run the send now if under the limits, otherwise queue it. The send must call
+     * {@link Permit#release(long rttNanos, boolean congested)} once Discord answered, or
+     * {@link Permit#cancel()} if it couldn't be queued in JDA.
+     *
+     * @param channelId The channel the reply goes to.
+     * @param send Queues the action in JDA.
+     * @param bestEffort Whether to drop the send instead of queueing it.
+     * @return False if the send was dropped.
+     */
+    boolean submit(long channelId, Consumer<Permit> send, boolean bestEffort) {
+        Permit permit;
+        synchronized (this) {
+            Channel channel = this.channels.computeIfAbsent(channelId, Channel::new);
+            if (this.inFlight < (int) this.limit && this.ready.isEmpty() && channel.inFlight < CHANNEL_LIMIT) {
+                permit = this.acquire(channel);
+            } else if (bestEffort || this.queued >= this.maxQueued || channel.waiting.size() >= this.maxChannelQueued) {
+                if (channel.inFlight == 0 && channel.waiting.isEmpty()) this.channels.remove(channelId);
+                this.shed.increment();
+                return false;
+            } else {
+                channel.waiting.add(send);
+                this.queued++;
+                this.markReady(channel);
+                return true;
+            }
+        }
+        this.sent.increment();
+        send.accept(permit);
+        return true;
+    }
+
+    synchronized double getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * @return The limit a fresh limiter starts from.
+     */
+    double getInitialLimit() {
+        return Math.min(10, this.maxLimit);
+    }
+
+    /**
+     * Start from the limit learned by an earlier run instead of the default, unless it is lower:
+     * a run shut down right after a burst of 429s would otherwise start the next one throttled.
+     */
+    synchronized void restoreLimit(double limit) {
+        this.limit = Math.max(this.getInitialLimit(), Math.min(this.maxLimit, limit));
+    }
+
+    synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    synchronized int getQueued() {
+        return this.queued;
+    }
+
+    synchronized double getSmoothedRtt() {
+        return this.smoothedRtt;
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_outbound_limit", "Replies allowed to wait on Discord at once.", null, this::getLimit);
+        metrics.gauge("baclava_outbound_in_flight", "Replies waiting on Discord.", null, this::getInFlight);
+        metrics.gauge("baclava_outbound_queued", "Replies waiting for the limit.", null, this::getQueued);
+        metrics.counter("baclava_outbound_sent", "Replies handed to JDA.", null, this.sent::sum);
+        metrics.counter("baclava_outbound_shed", "Replies dropped because the limit was reached.", null, this.shed::sum);
+        metrics.gauge("baclava_outbound_rtt_seconds", "Smoothed time for Discord to answer a reply.", null,
+                () -> this.getSmoothedRtt() / 1e9);
+    }
+
+    /**
+     * Record the answer to a send and start the queued ones the limits now allow.
+     */
+    private void release(Permit permit, long rttNanos, boolean congested) {
+        synchronized (this) {
+            boolean busy = !this.ready.isEmpty() || this.inFlight >= (int) this.limit;
+            this.free(permit.channel);
+            // Past the first send of a channel, latency includes waiting on the channel's own rate limit.
+            if (congested || permit.alone) this.adapt(rttNanos, congested, busy);
+        }
+        this.drain();
+    }
+
+    private void cancel(Permit permit) {
+        synchronized (this) {
+            this.free(permit.channel);
+        }
+        this.drain();
+    }
+
+    private void adapt(long rttNanos, boolean congested, boolean busy) {
+        long now = System.nanoTime();
+        this.smoothedRtt = this.smoothedRtt == 0 ? rttNanos : this.smoothedRtt * 0.9 + rttNanos * 0.1;
+        // The baseline is the lowest latency over the last one to two minutes, so it follows lasting changes.
+        if (now - this.baselineAt >= BASELINE_WINDOW) {
+            this.minRtt = this.nextMinRtt;
+            this.nextMinRtt = Long.MAX_VALUE;
+            this.baselineAt = now;
+        }
+        this.minRtt = Math.min(this.minRtt, rttNanos);
+        this.nextMinRtt = Math.min(this.nextMinRtt, rttNanos);
+
+        if (congested || rttNanos > TOLERANCE * this.minRtt) {
+            if (now - this.decreasedAt >= this.smoothedRtt) {
+                this.limit = Math.max(MIN_LIMIT, this.limit * BACKOFF);
+                this.decreasedAt = now;
+            }
+        } else if (busy) {
+            // Only grow when the limit is what holds sends back.
+            this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+        }
+    }
+
+    private Permit acquire(Channel channel) {
+        Permit permit = new Permit(channel, channel.inFlight == 0);
+        channel.inFlight++;
+        this.inFlight++;
+        return permit;
+    }
+
+    private void free(Channel channel) {
+        channel.inFlight--;
+        this.inFlight--;
+        if (channel.waiting.isEmpty()) {
+            if (channel.inFlight == 0) this.channels.remove(channel.id);
+        } else {
+            this.markReady(channel);
+        }
+    }
+
+    private void markReady(Channel channel) {
+        if (channel.ready || channel.inFlight >= CHANNEL_LIMIT) return;
+        channel.ready = true;
+        this.ready.add(channel);
+    }
+
+    private void drain() {
+        while (true) {
+            Consumer<Permit> next;
+            Permit permit;
+            synchronized (this) {
+                if (this.inFlight >= (int) this.limit || this.ready.isEmpty()) return;
+                Channel channel = this.ready.poll();
+                channel.ready = false;
+                next = channel.waiting.poll();
+                this.queued--;
+                permit = this.acquire(channel);
+                // Back of the line, so every channel with waiting sends gets its turn.
+                if (!channel.waiting.isEmpty()) this.markReady(channel);
+            }
+            this.sent.increment();
+            try {
+                next.accept(permit);
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not send a queued reply.", e);
+            }
+        }
+    }
+
+    /**
+     * A send let through by the limiter, to give back once Discord answered.
+     */
+    final class Permit {
+        private final Channel channel;
+        private final boolean alone;
+
+        private Permit(Channel channel, boolean alone) {
+            this.channel = channel;
+            this.alone = alone;
+        }
+
+        /**
+         * @param rttNanos The time between queueing the action and the answer.
+         * @param congested Whether the answer tells Discord is struggling, regardless of latency.
+         */
+        void release(long rttNanos, boolean congested) {
+            OutboundLimiter.this.release(this, rttNanos, congested);
+        }
+
+        /**
+         * Give back a permit whose send never reached JDA.
+         */
+        void cancel() {
+            OutboundLimiter.this.cancel(this);
+        }
+    }
+
+    private static class Channel {
+        final long id;
+        final Deque<Consumer<Permit>> waiting = new ArrayDeque<>();
+        int inFlight;
+        boolean ready;
+
+        Channel(long id) {
+            this.id = id;
+        }
+    }
+}
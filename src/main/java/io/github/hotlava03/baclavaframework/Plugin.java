@@ -0,0 +1,116 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A jar of commands loaded by the {@link PluginManager}.
+ */
+public class Plugin {
+    private final String name;
+    private final Path path;
+    final List<LazyCommand> commands = new ArrayList<>();
+    // Invocations of the commands of this plugin running right now.
+    final AtomicInteger running = new AtomicInteger();
+    private URLClassLoader classLoader;
+    private boolean closed;
+
+    Plugin(String name, Path path) {
+        this.name = name;
+        this.path = path;
+    }
+
+    /**
+     * @return The plugin name, from its metadata.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The plugin jar.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return The names of the commands of this plugin.
+     */
+    public List<String> getCommandNames() {
+        List<String> names = new ArrayList<>(this.commands.size());
+        for (Command command : this.commands) names.add(command.getName());
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return The amount of commands whose class was loaded, because they were invoked.
+     */
+    public int getInstantiatedCommands() {
+        int count = 0;
+        for (LazyCommand command : this.commands) if (command.isInstantiated()) count++;
+        return count;
+    }
+
+    /**
+     * Load and instantiate a command class of this plugin, creating the class loader on first use.
+     *
+     * @throws IllegalStateException If the plugin was unloaded or the class isn't a valid command.
+     */
+    synchronized Command instantiate(String className) {
+        if (this.closed) throw new IllegalStateException("The plugin " + this.name + " was unloaded.");
+        try {
+            if (this.classLoader == null)
+                this.classLoader = new URLClassLoader(new URL[]{this.path.toUri().toURL()}, Plugin.class.getClassLoader());
+            return Class.forName(className, true, this.classLoader)
+                    .asSubclass(Command.class)
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException("Invalid plugin path " + this.path + ".", e);
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+            throw new IllegalStateException("Could not instantiate " + className + " from the plugin " + this.name
+                    + ", it must extend Command and have a public no-args constructor.", e);
+        }
+    }
+
+    /**
+     * Close the class loader. Only call once no command of the plugin runs anymore, or they
+     * may fail to load the classes they haven't loaded yet.
+     */
+    synchronized void close() throws IOException {
+        this.closed = true;
+        if (this.classLoader != null) this.classLoader.close();
+        this.classLoader = null;
+    }
+
+    @Override
+    public String toString() {
+        return "Plugin{name=" + this.name + ", path=" + this.path + ", commands=" + this.commands.size() + "}";
+    }
+}
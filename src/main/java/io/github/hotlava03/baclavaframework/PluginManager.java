@@ -0,0 +1,300 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Loads commands from plugin jars. Each jar describes its commands in a
+ * {@code baclava-plugin.properties} file at its root:
+ * <pre>
+ * name=music
+ * commands=play,skip
+ * command.play.class=com.example.music.PlayCommand
+ * command.play.aliases=p,pl
+ * command.play.category=music
+ * command.play.usage=play &lt;song&gt;
+ * command.play.cache=voice_states
+ * command.skip.class=com.example.music.SkipCommand
+ * </pre>
+ * Only this file is read when loading: command classes are loaded and instantiated,
+ * in a class loader of their plugin, on their first invocation. Command classes must
+ * extend {@link Command} and have a public no-args constructor.
+ *
+ * @see BaclavaFrameworkBuilder#setPluginDirectory(Path directory)
+ */
+public class PluginManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginManager.class);
+    private static final String METADATA = "baclava-plugin.properties";
+    private static final long CLOSE_TIMEOUT = TimeUnit.MINUTES.toNanos(1);
+
+    private final Path directory;
+    private final CommandRegisterer registerer;
+    private final Map<String, Plugin> plugins = new ConcurrentHashMap<>();
+    // The caches of the running bot, null until it connected.
+    private volatile CacheSettings cache;
+
+    PluginManager(Path directory, CommandRegisterer registerer) {
+        this.directory = directory;
+        this.registerer = registerer;
+    }
+
+    /**
+     * @return The loaded plugins.
+     */
+    public List<Plugin> getPlugins() {
+        return new ArrayList<>(this.plugins.values());
+    }
+
+    /**
+     * @param name The plugin name.
+     * @return The plugin, or null if it isn't loaded.
+     */
+    public Plugin getPlugin(String name) {
+        return this.plugins.get(name);
+    }
+
+    /**
+     * Load every jar in the plugin directory that isn't loaded yet.
+     *
+     * @throws IOException If the directory can't be listed.
+     */
+    public synchronized void loadAll() throws IOException {
+        Files.createDirectories(this.directory);
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(this.directory, "*.jar")) {
+            for (Path jar : jars) {
+                if (this.isLoaded(jar)) continue;
+                try {
+                    this.load(jar);
+                } catch (IOException | IllegalArgumentException e) {
+                    LOGGER.error("Could not load the plugin " + jar + ".", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a plugin and register its commands. Commands whose name is already taken are skipped.
+     * A command needing a cache the memory profile didn't enable is loaded with a warning, as the
+     * caches are only chosen when connecting.
+     *
+     * @param jar The plugin jar.
+     * @return The loaded plugin.
+     * @throws IOException If the jar can't be read.
+     * @throws IllegalArgumentException If the jar has no valid metadata, or a plugin with the same name is loaded.
+     */
+    public synchronized Plugin load(Path jar) throws IOException {
+        Plugin plugin = this.read(jar);
+        if (this.plugins.containsKey(plugin.getName()))
+            throw new IllegalArgumentException("A plugin named " + plugin.getName() + " is already loaded.");
+        this.register(plugin);
+        return plugin;
+    }
+
+    /**
+     * Read the metadata of a plugin, without registering anything.
+     */
+    private Plugin read(Path jar) throws IOException {
+        Properties metadata = readMetadata(jar);
+        String name = metadata.getProperty("name");
+        if (name == null || name.trim().isEmpty())
+            throw new IllegalArgumentException("The plugin " + jar + " has no name in its metadata.");
+
+        Plugin plugin = new Plugin(name, jar);
+        for (String command : split(metadata.getProperty("commands"))) {
+            String prefix = "command." + command + ".";
+            String className = metadata.getProperty(prefix + "class");
+            if (className == null) {
+                LOGGER.warn("Skipped the command " + command + " of the plugin " + name + ", it has no class.");
+                continue;
+            }
+            LazyCommand lazy = new LazyCommand(plugin, className.trim(), metadata.getProperty(prefix + "category"),
+                    split(metadata.getProperty(prefix + "aliases")), metadata.getProperty(prefix + "usage"),
+                    metadata.getProperty(prefix + "examples"), split(metadata.getProperty(prefix + "flags")),
+                    cacheRequirements(split(metadata.getProperty(prefix + "cache"))));
+            lazy.name = command;
+            plugin.commands.add(lazy);
+        }
+        return plugin;
+    }
+
+    /**
+     * Register the commands of a plugin whose whole metadata is valid.
+     */
+    private void register(Plugin plugin) {
+        for (Iterator<LazyCommand> commands = plugin.commands.iterator(); commands.hasNext(); ) {
+            LazyCommand command = commands.next();
+            if (this.registerer.getCommands().containsKey(command.getName())) {
+                LOGGER.warn("Skipped the command " + command.getName() + " of the plugin " + plugin.getName()
+                        + ", the name is taken.");
+                commands.remove();
+                continue;
+            }
+            this.registerer.registerCommand(command.getName(), command);
+            this.checkCaches(plugin, command);
+        }
+        this.plugins.put(plugin.getName(), plugin);
+        LOGGER.info("Loaded the plugin " + plugin.getName() + " with " + plugin.commands.size() + " commands.");
+    }
+
+    /**
+     * Unregister the commands of a plugin. Its class loader is closed in the background once
+     * the invocations already running finished, or after a minute.
+     *
+     * @param name The plugin name.
+     * @return False if no plugin with that name is loaded.
+     */
+    public synchronized boolean unload(String name) {
+        Plugin plugin = this.plugins.remove(name);
+        if (plugin == null) return false;
+        this.unregister(plugin);
+        this.closeWhenIdle(plugin);
+        LOGGER.info("Unloaded the plugin " + name + ".");
+        return true;
+    }
+
+    /**
+     * Load the jar of a plugin again, for example after replacing it. The new jar is read and
+     * checked before the old plugin is unloaded, so the old one stays if the new one is invalid.
+     *
+     * @param name The plugin name.
+     * @return The reloaded plugin.
+     * @throws IOException If the jar can't be read.
+     * @throws IllegalArgumentException If no plugin with that name is loaded, or the jar is invalid
+     *                                  or now has another name.
+     */
+    public synchronized Plugin reload(String name) throws IOException {
+        Plugin old = this.plugins.get(name);
+        if (old == null) throw new IllegalArgumentException("No plugin named " + name + " is loaded.");
+        Plugin plugin = this.read(old.getPath());
+        if (!plugin.getName().equals(name))
+            throw new IllegalArgumentException("The jar of the plugin " + name + " is now named " + plugin.getName() + ".");
+        this.plugins.remove(name);
+        this.unregister(old);
+        this.register(plugin);
+        this.closeWhenIdle(old);
+        return plugin;
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_plugins_loaded", "Loaded plugins.", null, this.plugins::size);
+        metrics.gauge("baclava_plugin_commands_instantiated", "Plugin commands whose class was loaded.", null, () -> {
+            int count = 0;
+            for (Plugin plugin : this.plugins.values()) count += plugin.getInstantiatedCommands();
+            return count;
+        });
+    }
+
+    void setCacheSettings(CacheSettings cache) {
+        this.cache = cache;
+    }
+
+    private void checkCaches(Plugin plugin, Command command) {
+        CacheSettings cache = this.cache;
+        if (cache == null) return;
+        for (CacheRequirement requirement : command.getCacheRequirements())
+            if (!cache.enabled.contains(requirement))
+                LOGGER.warn("The command " + command.getName() + " of the plugin " + plugin.getName() + " needs the "
+                        + requirement + " cache, which the " + cache.profile + " memory profile didn't enable."
+                        + (cache.profile == MemoryProfile.LIGHT ? "" : " It will be enabled after a restart."));
+    }
+
+    private void unregister(Plugin plugin) {
+        for (LazyCommand command : plugin.commands)
+            if (this.registerer.getCommands().get(command.getName()) == command)
+                this.registerer.unregisterCommand(command.getName());
+    }
+
+    /**
+     * Close the class loader of an unregistered plugin once its running invocations finished,
+     * so they don't fail on classes they load lazily.
+     */
+    private void closeWhenIdle(Plugin plugin) {
+        BaclavaFrameworkBuilder.daemonThreads("baclava-plugin-close").newThread(() -> {
+            long deadline = System.nanoTime() + CLOSE_TIMEOUT;
+            try {
+                while (plugin.running.get() > 0 && System.nanoTime() - deadline < 0)
+                    TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (plugin.running.get() > 0)
+                LOGGER.warn("Closing the plugin " + plugin.getName() + " with " + plugin.running.get()
+                        + " invocations still running.");
+            try {
+                plugin.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close the class loader of the plugin " + plugin.getName() + ".", e);
+            }
+        }).start();
+    }
+
+    private boolean isLoaded(Path jar) {
+        for (Plugin plugin : this.plugins.values())
+            if (plugin.getPath().equals(jar)) return true;
+        return false;
+    }
+
+    private static Properties readMetadata(Path jar) throws IOException {
+        try (JarFile file = new JarFile(jar.toFile())) {
+            ZipEntry entry = file.getEntry(METADATA);
+            if (entry == null) throw new IllegalArgumentException("The plugin " + jar + " has no " + METADATA + ".");
+            Properties metadata = new Properties();
+            try (Reader reader = new InputStreamReader(file.getInputStream(entry), StandardCharsets.UTF_8)) {
+                metadata.load(reader);
+            }
+            return metadata;
+        }
+    }
+
+    private static CacheRequirement[] cacheRequirements(String[] names) {
+        CacheRequirement[] requirements = new CacheRequirement[names.length];
+        for (int i = 0; i < names.length; i++)
+            try {
+                requirements[i] = CacheRequirement.valueOf(names[i].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown cache requirement " + names[i] + ".", e);
+            }
+        return requirements;
+    }
+
+    private static String[] split(String list) {
+        if (list == null || list.trim().isEmpty()) return new String[]{};
+        return list.trim().split("\\s*,\\s*");
+    }
+}
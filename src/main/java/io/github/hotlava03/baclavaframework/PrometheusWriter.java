@@ -0,0 +1,195 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.Arrays;
+
+/**
+ * Writes the Prometheus text exposition format straight into a reusable byte buffer.
+ * Numbers and strings are encoded by hand so a scrape allocates nothing once the
+ * buffer has grown to fit the output. Not thread safe.
+ */
+class PrometheusWriter {
+    private byte[] buffer;
+    private int size;
+
+    /**
+     * @param initialCapacity The initial buffer size in bytes.
+     */
+    PrometheusWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        this.size = 0;
+    }
+
+    byte[] getBuffer() {
+        return this.buffer;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Write the HELP and TYPE lines of a metric family.
+     */
+    PrometheusWriter family(String name, String type, String help) {
+        this.ascii("# HELP ").ascii(name).ascii(" ");
+        for (int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+            if (c == '\\') this.ascii("\\\\");
+            else if (c == '\n') this.ascii("\\n");
+            else this.character(c);
+        }
+        return this.ascii("\n# TYPE ").ascii(name).ascii(" ").ascii(type).ascii("\n");
+    }
+
+    /**
+     * Start a sample line. Follow with any number of {@link #label(String, String)}
+     * and finish with one of the value methods.
+     */
+    PrometheusWriter sample(String name) {
+        return this.ascii(name);
+    }
+
+    /**
+     * Start a sample line whose name is a family name plus a suffix, like _bucket.
+     */
+    PrometheusWriter sample(String name, String suffix) {
+        return this.ascii(name).ascii(suffix);
+    }
+
+    PrometheusWriter label(String name, String value) {
+        this.put(this.size == 0 || this.buffer[this.size - 1] != '"' ? (byte) '{' : (byte) ',');
+        this.ascii(name).ascii("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') this.ascii("\\\\");
+            else if (c == '"') this.ascii("\\\"");
+            else if (c == '\n') this.ascii("\\n");
+            else this.character(c);
+        }
+        return this.put((byte) '"');
+    }
+
+    /**
+     * Write a preformatted label set, like {@code pool="callback"}.
+     */
+    PrometheusWriter labels(String labels) {
+        if (labels == null || labels.isEmpty()) return this;
+        return this.put((byte) '{').ascii(labels).put((byte) '}');
+    }
+
+    void value(long value) {
+        this.closeLabels().put((byte) ' ').number(value).put((byte) '\n');
+    }
+
+    void value(double value) {
+        this.closeLabels().put((byte) ' ');
+        if (Double.isNaN(value)) this.ascii("NaN");
+        else if (Double.isInfinite(value)) this.ascii(value > 0 ? "+Inf" : "-Inf");
+        else this.decimal(value);
+        this.put((byte) '\n');
+    }
+
+    /**
+     * Write a duration in nanoseconds as seconds.
+     */
+    void seconds(long nanos) {
+        this.value(nanos / 1e9);
+    }
+
+    private PrometheusWriter closeLabels() {
+        if (this.size > 0 && this.buffer[this.size - 1] == '"') this.put((byte) '}');
+        return this;
+    }
+
+    private PrometheusWriter number(long value) {
+        if (value == Long.MIN_VALUE) return this.ascii("-9223372036854775808");
+        if (value < 0) {
+            this.put((byte) '-');
+            value = -value;
+        }
+        this.ensure(20);
+        int start = this.size;
+        do {
+            this.buffer[this.size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = this.size - 1; i < j; i++, j--) {
+            byte swap = this.buffer[i];
+            this.buffer[i] = this.buffer[j];
+            this.buffer[j] = swap;
+        }
+        return this;
+    }
+
+    private void decimal(double value) {
+        // Six decimals are plenty for seconds and ratios, larger values lose nothing worth keeping.
+        if (Math.abs(value) >= 1e12) {
+            this.number(Math.round(value));
+            return;
+        }
+        if (value < 0) {
+            this.put((byte) '-');
+            value = -value;
+        }
+        long scaled = Math.round(value * 1e6);
+        this.number(scaled / 1000000);
+        long fraction = scaled % 1000000;
+        if (fraction == 0) return;
+        this.put((byte) '.');
+        for (long digit = 100000; digit > 0 && fraction > 0; digit /= 10) {
+            this.put((byte) ('0' + fraction / digit));
+            fraction %= digit;
+        }
+    }
+
+    private PrometheusWriter ascii(String s) {
+        this.ensure(s.length());
+        for (int i = 0; i < s.length(); i++) this.buffer[this.size++] = (byte) s.charAt(i);
+        return this;
+    }
+
+    private void character(char c) {
+        if (c < 0x80) {
+            this.put((byte) c);
+        } else if (c < 0x800) {
+            this.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // Characters outside the BMP (emoji) aren't worth encoding in a label.
+            this.put((byte) '?');
+        } else {
+            this.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+        }
+    }
+
+    private PrometheusWriter put(byte b) {
+        this.ensure(1);
+        this.buffer[this.size++] = b;
+        return this;
+    }
+
+    private void ensure(int extra) {
+        if (this.size + extra > this.buffer.length)
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + extra));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+/**
+ * The result of {@link StateStore#acquire(String key, long permits, long limit, long windowMillis)}.
+ */
+public class Quota {
+    private final long granted;
+    private final long remainingMillis;
+
+    /**
+     * @param granted The amount of permits granted.
+     * @param remainingMillis The time left until the window of the key ends, in milliseconds.
+     */
+    public Quota(long granted, long remainingMillis) {
+        this.granted = granted;
+        this.remainingMillis = remainingMillis;
+    }
+
+    /**
+     * @return The amount of permits granted.
+     */
+    public long getGranted() {
+        return granted;
+    }
+
+    /**
+     * @return The time left until the window of the key ends, in milliseconds.
+     */
+    public long getRemainingMillis() {
+        return remainingMillis;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Near cache in front of a {@link StateStore}. Permits are leased from the store an eighth of the
+ * limit at a time and handed out locally until the lease runs out or the window ends, and an exhausted
+ * quota is denied locally until its window ends. A node never admits more than the store granted,
+ * but may leave up to an eighth of a limit unused. When the store doesn't answer in time, the
+ * invocation is let through, and so is every invocation for the next few seconds without asking
+ * the store, so an outage doesn't slow every command down. An answer arriving late still fills the cache.
+ */
+class QuotaCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuotaCache.class);
+    private static final int LEASE_FRACTION = 8;
+    private static final long STORE_TIMEOUT = 100;
+    private static final long FAIL_OPEN = TimeUnit.SECONDS.toNanos(5);
+    private static final int SWEEP_INTERVAL = 4096;
+
+    private final StateStore store;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final LongAdder localChecks = new LongAdder();
+    private final LongAdder storeChecks = new LongAdder();
+    private final LongAdder storeFailures = new LongAdder();
+    private volatile long failOpenUntil = System.nanoTime();
+
+    QuotaCache(StateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Take a permit.
+     *
+     * @param key The quota key.
+     * @param limit The permits per window.
+     * @param windowMillis The window length.
+     * @return 0 if a permit was taken, otherwise the milliseconds until the window ends.
+     */
+    long tryAcquire(String key, long limit, long windowMillis) {
+        long now = System.nanoTime();
+        Lease lease = this.leases.get(key);
+        if (lease != null) {
+            synchronized (lease) {
+                if (now - lease.end < 0 && (lease.remaining > 0 || lease.exhausted)) {
+                    this.localChecks.increment();
+                    if (lease.exhausted) return Math.max(TimeUnit.NANOSECONDS.toMillis(lease.end - now), 1);
+                    lease.remaining--;
+                    return 0;
+                }
+            }
+        }
+
+        if (now - this.failOpenUntil < 0) {
+            this.storeFailures.increment();
+            return 0;
+        }
+        this.storeChecks.increment();
+        CompletableFuture<Quota> request = null;
+        Quota quota;
+        try {
+            request = this.store.acquire(key, Math.max(limit / LEASE_FRACTION, 1), limit, windowMillis);
+            quota = request.get(STORE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The permit this invocation takes is the one it was let through with.
+            request.thenAccept(late -> this.cache(key, late, System.nanoTime(), false));
+            this.fail(key, e);
+            return 0;
+        } catch (ExecutionException | RuntimeException e) {
+            this.fail(key, e);
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        return this.cache(key, quota, now, true);
+    }
+
+    /**
+     * @param take Whether the caller takes a permit out of the lease.
+     * @return 0 if a permit was granted, otherwise the milliseconds until the window ends.
+     */
+    private long cache(String key, Quota quota, long now, boolean take) {
+        long granted = quota.getGranted();
+        this.leases.put(key, new Lease(now + TimeUnit.MILLISECONDS.toNanos(quota.getRemainingMillis()),
+                Math.max(take ? granted - 1 : granted, 0), granted == 0));
+        if (this.misses.incrementAndGet() % SWEEP_INTERVAL == 0)
+            this.leases.values().removeIf(expired -> now - expired.end >= 0);
+        return granted > 0 ? 0 : Math.max(quota.getRemainingMillis(), 1);
+    }
+
+    private void fail(String key, Exception e) {
+        this.storeFailures.increment();
+        this.failOpenUntil = System.nanoTime() + FAIL_OPEN;
+        LOGGER.debug("The state store failed, letting " + key + " and the next invocations through.", e);
+    }
+
+    void close() {
+        this.store.close();
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.counter("baclava_quota_checks", "Cooldown and rate limit checks by where they were answered.",
+                "source=\"local\"", this.localChecks::sum);
+        metrics.counter("baclava_quota_checks", "Cooldown and rate limit checks by where they were answered.",
+                "source=\"store\"", this.storeChecks::sum);
+        metrics.counter("baclava_quota_store_failures", "Checks let through because the state store failed or timed out.",
+                null, this.storeFailures::sum);
+        metrics.gauge("baclava_quota_leases", "Cooldown and rate limit leases held by this process.", null,
+                this.leases::size);
+    }
+
+    private static class Lease {
+        final long end;
+        long remaining;
+        final boolean exhausted;
+
+        Lease(long end, long remaining, boolean exhausted) {
+            this.end = end;
+            this.remaining = remaining;
+            this.exhausted = exhausted;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link StateStore} served by a {@link StateStoreServer}. Acquisitions are queued and a single
+ * writer thread sends whatever accumulated in one write, without waiting for the responses of the
+ * previous batch; a reader thread completes them as they arrive. When the connection fails, the
+ * pending acquisitions fail and the next batch reconnects, at most once per second. A server
+ * that doesn't answer an acquisition within a second is treated as a failed connection, and at
+ * most 65536 acquisitions wait to be sent, so a hung server can't make requests pile up.
+ */
+public class RemoteStateStore implements StateStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteStateStore.class);
+    private static final int MAX_BATCH = 256;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final long RECONNECT_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private static final long REQUEST_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_QUEUED = 65536;
+
+    private final InetSocketAddress address;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Thread writer;
+    private volatile Connection connection;
+    private volatile boolean closed;
+    private long reconnectAt;
+
+    /**
+     * @param address The address of the {@link StateStoreServer}. Connects lazily.
+     */
+    public RemoteStateStore(InetSocketAddress address) {
+        this.address = address;
+        this.writer = new Thread(this::write, "baclava-state-client");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public CompletableFuture<Quota> acquire(String key, long permits, long limit, long windowMillis) {
+        Request request = new Request(this.ids.incrementAndGet(), key, permits, limit, windowMillis);
+        if (this.closed) request.future.completeExceptionally(new IllegalStateException("The state store is closed."));
+        else if (!this.queue.offer(request))
+            request.future.completeExceptionally(new IllegalStateException("Too many acquisitions are waiting."));
+        return request.future;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.writer.interrupt();
+        Connection connection = this.connection;
+        if (connection != null) connection.fail(new IOException("The state store is closed."));
+    }
+
+    private void write() {
+        List<Request> batch = new ArrayList<>(MAX_BATCH);
+        long expireAt = System.nanoTime();
+        while (!this.closed) {
+            Request first;
+            try {
+                first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            long now = System.nanoTime();
+            Connection connection = this.connection;
+            if (connection != null && now - expireAt >= 0) {
+                connection.expire(now - REQUEST_TIMEOUT);
+                expireAt = now + TimeUnit.MILLISECONDS.toNanos(100);
+            }
+            if (first == null) continue;
+            batch.add(first);
+            this.queue.drainTo(batch, MAX_BATCH - 1);
+            try {
+                this.connect().send(batch);
+            } catch (IOException e) {
+                for (Request request : batch) request.future.completeExceptionally(e);
+            }
+            batch.clear();
+        }
+        IllegalStateException closed = new IllegalStateException("The state store is closed.");
+        for (Request request : this.queue) request.future.completeExceptionally(closed);
+    }
+
+    private Connection connect() throws IOException {
+        Connection connection = this.connection;
+        if (connection != null && !connection.isFailed()) return connection;
+        if (System.nanoTime() - this.reconnectAt < 0)
+            throw new IOException("Not reconnecting to the state store at " + this.address + " yet.");
+        Socket socket = new Socket();
+        try {
+            socket.connect(this.address, CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            StateStoreServer.closeQuietly(socket);
+            this.reconnectAt = System.nanoTime() + RECONNECT_DELAY;
+            LOGGER.warn("Could not connect to the state store at " + this.address + ": " + e.getMessage());
+            throw e;
+        }
+        connection = new Connection(socket);
+        Thread reader = new Thread(connection::read, "baclava-state-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+        this.connection = connection;
+        return connection;
+    }
+
+    private static class Request {
+        final int id;
+        final String key;
+        final long permits;
+        final long limit;
+        final long windowMillis;
+        final CompletableFuture<Quota> future = new CompletableFuture<>();
+        long sentAt;
+
+        Request(int id, String key, long permits, long limit, long windowMillis) {
+            this.id = id;
+            this.key = key;
+            this.permits = permits;
+            this.limit = limit;
+            this.windowMillis = windowMillis;
+        }
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final Map<Integer, Request> pending = new ConcurrentHashMap<>();
+        private boolean failed;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void send(List<Request> batch) throws IOException {
+            synchronized (this) {
+                if (this.failed) throw new IOException("The state store connection failed.");
+                long now = System.nanoTime();
+                for (Request request : batch) {
+                    request.sentAt = now;
+                    this.pending.put(request.id, request);
+                }
+            }
+            try {
+                for (Request request : batch) {
+                    this.out.writeInt(request.id);
+                    this.out.writeUTF(request.key);
+                    this.out.writeLong(request.permits);
+                    this.out.writeLong(request.limit);
+                    this.out.writeLong(request.windowMillis);
+                }
+                this.out.flush();
+            } catch (IOException e) {
+                this.fail(e);
+                throw e;
+            }
+        }
+
+        void read() {
+            try {
+                while (true) {
+                    int id = this.in.readInt();
+                    long granted = this.in.readLong();
+                    long remaining = this.in.readLong();
+                    Request request = this.pending.remove(id);
+                    if (request != null) request.future.complete(new Quota(granted, remaining));
+                }
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+
+        /**
+         * Fail the connection if a request sent before the given time is still unanswered.
+         */
+        void expire(long sentBefore) {
+            for (Request request : this.pending.values()) {
+                if (request.sentAt - sentBefore < 0) {
+                    this.fail(new IOException("The state store didn't answer in time."));
+                    return;
+                }
+            }
+        }
+
+        synchronized boolean isFailed() {
+            return this.failed;
+        }
+
+        void fail(IOException cause) {
+            synchronized (this) {
+                if (this.failed) return;
+                this.failed = true;
+            }
+            StateStoreServer.closeQuietly(this.socket);
+            for (Request request : this.pending.values()) request.future.completeExceptionally(cause);
+            this.pending.clear();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Offline load generator for the command pipeline. Builds the framework around an
+ * {@link OfflineGateway} and replays synthetic or recorded traffic through it.<br><br>
+ *
+ * Synthetic traffic picks guilds, channels and users following a Zipf distribution
+ * (a skew of 0 is uniform, 1 is typical "few big guilds" traffic) and commands following
+ * the weights given to {@link ReplayLoadGenerator#addCommand(String content, int weight)}.<br>
+ * Recorded traffic is a text file with one message per line:
+ * {@code guildId<TAB>channelId<TAB>userId<TAB>content}, where guildId is 0 for direct messages.<br><br>
+ *
+ * Usage:
+ * <pre>{@code
+ * LoadReport report = new ReplayLoadGenerator(new BaclavaFrameworkBuilder()
+ *         .setCommandRegisterer(new MyRegisterer())
+ *         .setPrefix("!")
+ *         .setOwnerId(1))
+ *     .setRate(2000)
+ *     .setGuilds(500, 1)
+ *     .addCommand("!ping", 10)
+ *     .addCommand("!help", 1)
+ *     .run();
+ * System.out.println(report);
+ * }</pre>
+ *
+ * @see LoadReport
+ */
+public class ReplayLoadGenerator {
+    private final BaclavaFrameworkBuilder builder;
+    private final List<String> commands = new ArrayList<>();
+    private final List<Integer> weights = new ArrayList<>();
+    private List<String[]> recorded;
+    private int rate;
+    private int messageCount = 10000;
+    private int warmupCount = 1000;
+    private int guilds = 100;
+    private double guildSkew;
+    private int channelsPerGuild = 5;
+    private int users = 1000;
+    private double userSkew;
+    private long seed = 42;
+    private long timeoutMillis = 60000;
+
+    /**
+     * @param builder The builder to build the framework from. Everything but the token must be set.
+     */
+    public ReplayLoadGenerator(BaclavaFrameworkBuilder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * @param rate Messages per second to send, or 0 to send as fast as possible. Defaults to 0.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setRate(int rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    /**
+     * @param messageCount Messages to send during the measured run. Defaults to 10000.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+        return this;
+    }
+
+    /**
+     * @param warmupCount Messages to send before measuring. Defaults to 1000.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setWarmupCount(int warmupCount) {
+        this.warmupCount = warmupCount;
+        return this;
+    }
+
+    /**
+     * @param count Amount of guilds to spread messages over, 0 for direct messages only. Defaults to 100.
+     * @param skew The Zipf exponent, 0 for a uniform distribution.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setGuilds(int count, double skew) {
+        this.guilds = count;
+        this.guildSkew = skew;
+        return this;
+    }
+
+    /**
+     * @param count Amount of channels per guild. Defaults to 5.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setChannelsPerGuild(int count) {
+        this.channelsPerGuild = count;
+        return this;
+    }
+
+    /**
+     * @param count Amount of message authors. Defaults to 1000.
+     * @param skew The Zipf exponent, 0 for a uniform distribution.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setUsers(int count, double skew) {
+        this.users = count;
+        this.userSkew = skew;
+        return this;
+    }
+
+    /**
+     * Add a message to the command mix.
+     *
+     * @param content The raw message content, including the prefix.
+     * @param weight How often this message is sent compared to the others.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator addCommand(String content, int weight) {
+        this.commands.add(content);
+        this.weights.add(weight);
+        return this;
+    }
+
+    /**
+     * Replay recorded traffic instead of generating it. Messages are replayed in order,
+     * looping over the file if more messages than recorded are requested.
+     *
+     * @param file The recorded traffic.
+     * @return The current instance for chained calls.
+     * @throws IOException If the file can't be read.
+     * @throws IllegalArgumentException If a line is malformed.
+     */
+    public ReplayLoadGenerator replay(Path file) throws IOException {
+        List<String[]> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) continue;
+            String[] parts = line.split("\t", 4);
+            if (parts.length != 4) throw new IllegalArgumentException("Malformed recorded message: " + line);
+            lines.add(parts);
+        }
+        this.recorded = lines;
+        return this;
+    }
+
+    /**
+     * @param seed The seed used for synthetic traffic. Defaults to 42.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param timeout How long to wait for the last messages to be handled.
+     * @param unit The timeout unit.
+     * @return The current instance for chained calls.
+     */
+    public ReplayLoadGenerator setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Build the framework offline, send the warmup messages and then the measured ones. The framework
+     * is shut down afterwards, so the builder can be run again.
+     *
+     * @return The measured results.
+     * @throws IllegalStateException If the framework can't be built or there is no traffic to send.
+     * @throws InterruptedException If interrupted while waiting for messages to be handled.
+     */
+    public LoadReport run() throws InterruptedException {
+        if (this.recorded == null && this.commands.isEmpty())
+            throw new IllegalStateException("Add commands or replay a recording before running.");
+
+        AtomicLong replies = new AtomicLong();
+        OfflineGateway gateway = new OfflineGateway((channelId, content) -> replies.incrementAndGet());
+        BaclavaFramework framework = this.builder.buildOffline(gateway);
+        try {
+            Traffic warmup = this.generate(this.warmupCount, this.seed - 1);
+            Traffic measured = this.generate(this.messageCount, this.seed);
+            this.send(gateway, warmup);
+
+            replies.set(0);
+            long allocatedBefore = allocatedBytes();
+            long duration = this.send(gateway, measured);
+            long allocatedAfter = allocatedBytes();
+            long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+            long[] latencies = Arrays.stream(measured.latencies).filter(latency -> latency >= 0).toArray();
+            return new LoadReport(this.messageCount, this.messageCount - latencies.length, duration, latencies,
+                    allocated, replies.get());
+        } finally {
+            framework.shutdown(Duration.ofMillis(this.timeoutMillis));
+        }
+    }
+
+    private long send(OfflineGateway gateway, Traffic traffic) throws InterruptedException {
+        int count = traffic.content.length;
+        long[] starts = new long[count];
+        CountDownLatch done = new CountDownLatch(count);
+        gateway.setDispatchListener((e, handled) -> {
+            int index = (int) e.getResponseNumber();
+            traffic.latencies[index] = handled ? System.nanoTime() - starts[index] : -1;
+            done.countDown();
+        });
+
+        long interval = this.rate > 0 ? TimeUnit.SECONDS.toNanos(1) / this.rate : 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long scheduled = begin + i * interval;
+            long now;
+            while ((now = System.nanoTime()) < scheduled)
+                LockSupport.parkNanos(scheduled - now);
+            // Measure from the planned send time so a falling behind pipeline isn't hidden.
+            starts[i] = interval == 0 ? now : scheduled;
+            gateway.dispatch(i, traffic.guilds[i], traffic.channels[i], traffic.users[i], traffic.content[i]);
+        }
+
+        if (!done.await(this.timeoutMillis, TimeUnit.MILLISECONDS))
+            throw new IllegalStateException(done.getCount() + " messages weren't handled before the timeout.");
+        gateway.setDispatchListener(null);
+        return System.nanoTime() - begin;
+    }
+
+    private Traffic generate(int count, long seed) {
+        Traffic traffic = new Traffic(count);
+        if (this.recorded != null) {
+            for (int i = 0; i < count; i++) {
+                String[] line = this.recorded.get(i % this.recorded.size());
+                traffic.guilds[i] = Long.parseLong(line[0]);
+                traffic.channels[i] = Long.parseLong(line[1]);
+                traffic.users[i] = Long.parseLong(line[2]);
+                traffic.content[i] = line[3];
+            }
+            return traffic;
+        }
+
+        Random random = new Random(seed);
+        double[] commandWeights = new double[this.weights.size()];
+        for (int i = 0; i < commandWeights.length; i++) commandWeights[i] = this.weights.get(i);
+        Distribution commandMix = new Distribution(commandWeights);
+        Distribution guildMix = this.guilds > 0 ? Distribution.zipf(this.guilds, this.guildSkew) : null;
+        Distribution userMix = Distribution.zipf(this.users, this.userSkew);
+
+        for (int i = 0; i < count; i++) {
+            long user = userMix.sample(random) + 1000000L;
+            traffic.users[i] = user;
+            traffic.content[i] = this.commands.get(commandMix.sample(random));
+            if (guildMix == null) {
+                // Direct messages get one channel per user, like on Discord.
+                traffic.channels[i] = user;
+                continue;
+            }
+            long guild = guildMix.sample(random) + 1;
+            traffic.guilds[i] = guild;
+            traffic.channels[i] = guild * 1000 + random.nextInt(Math.max(this.channelsPerGuild, 1));
+        }
+        return traffic;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            if (allocated > 0) total += allocated;
+        return total;
+    }
+
+    private static class Traffic {
+        final long[] guilds;
+        final long[] channels;
+        final long[] users;
+        final String[] content;
+        final long[] latencies;
+
+        Traffic(int count) {
+            this.guilds = new long[count];
+            this.channels = new long[count];
+            this.users = new long[count];
+            this.content = new String[count];
+            this.latencies = new long[count];
+        }
+    }
+
+    private static class Distribution {
+        private final double[] cumulative;
+
+        Distribution(double[] weights) {
+            this.cumulative = new double[weights.length];
+            double total = 0;
+            for (int i = 0; i < weights.length; i++) {
+                total += weights[i];
+                this.cumulative[i] = total;
+            }
+        }
+
+        static Distribution zipf(int count, double skew) {
+            double[] weights = new double[Math.max(count, 1)];
+            for (int i = 0; i < weights.length; i++) weights[i] = 1 / Math.pow(i + 1, skew);
+            return new Distribution(weights);
+        }
+
+        int sample(Random random) {
+            double target = random.nextDouble() * this.cumulative[this.cumulative.length - 1];
+            int index = Arrays.binarySearch(this.cumulative, target);
+            return index >= 0 ? index : Math.min(-index - 1, this.cumulative.length - 1);
+        }
+    }
+}
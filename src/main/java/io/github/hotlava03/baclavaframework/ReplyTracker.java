@@ -0,0 +1,157 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers which reply answered which command message, so an edited command can edit its reply
+ * instead of posting a new one. Bounded and expiring: entries are kept in order of the command
+ * message's creation, so the oldest one is always at the head and expired ones are dropped from
+ * there on every access.
+ */
+class ReplyTracker {
+    private static final long DISCORD_EPOCH = 1420070400000L;
+
+    private final int capacity;
+    private final long windowMillis;
+    private final LinkedHashMap<Long, Tracked> tracked = new LinkedHashMap<Long, Tracked>(64, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Tracked> eldest) {
+            return this.size() > ReplyTracker.this.capacity;
+        }
+    };
+    private final LongAdder redispatched = new LongAdder();
+    private final LongAdder edited = new LongAdder();
+
+    /**
+     * @param capacity The maximum amount of command messages tracked.
+     * @param window How long after a command message was sent its edits are handled.
+     * @param unit The window unit.
+     */
+    ReplyTracker(int capacity, long window, TimeUnit unit) {
+        this.capacity = capacity;
+        this.windowMillis = unit.toMillis(window);
+    }
+
+    /**
+     * @param messageId The command message ID.
+     * @return True if the message was sent recently enough for its edits to be handled.
+     */
+    boolean isRecent(long messageId) {
+        return System.currentTimeMillis() < expiry(messageId, this.windowMillis);
+    }
+
+    /**
+     * Claim an edit of a command message, so the same edit delivered twice, or an update that
+     * didn't change the content (like a pin), isn't dispatched again.
+     *
+     * @param messageId The command message ID.
+     * @param editedAt When the message was last edited, in epoch milliseconds.
+     * @return True if the edit is new and should be dispatched.
+     */
+    synchronized boolean claimEdit(long messageId, long editedAt) {
+        long now = System.currentTimeMillis();
+        this.expire(now);
+        Tracked entry = this.tracked.get(messageId);
+        if (entry == null) {
+            long expiresAt = expiry(messageId, this.windowMillis);
+            if (now >= expiresAt) return false;
+            this.tracked.put(messageId, new Tracked(expiresAt, editedAt));
+        } else {
+            if (editedAt <= entry.editedAt) return false;
+            entry.editedAt = editedAt;
+        }
+        this.redispatched.increment();
+        return true;
+    }
+
+    /**
+     * @param messageId The command message ID.
+     * @return The ID of the reply to edit, 0 if there is none.
+     */
+    synchronized long getReply(long messageId) {
+        this.expire(System.currentTimeMillis());
+        Tracked entry = this.tracked.get(messageId);
+        return entry == null ? 0 : entry.replyId;
+    }
+
+    /**
+     * @param messageId The command message ID.
+     * @param replyId The ID of its first reply, 0 to forget it, for example after it was deleted.
+     */
+    synchronized void setReply(long messageId, long replyId) {
+        long now = System.currentTimeMillis();
+        this.expire(now);
+        Tracked entry = this.tracked.get(messageId);
+        if (entry != null) {
+            entry.replyId = replyId;
+            return;
+        }
+        long expiresAt = expiry(messageId, this.windowMillis);
+        if (replyId == 0 || now >= expiresAt) return;
+        Tracked created = new Tracked(expiresAt, 0);
+        created.replyId = replyId;
+        this.tracked.put(messageId, created);
+    }
+
+    void recordEdited() {
+        this.edited.increment();
+    }
+
+    synchronized int size() {
+        return this.tracked.size();
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_edit_tracked_messages", "Command messages whose edits are handled.", null, this::size);
+        metrics.counter("baclava_edit_redispatched", "Commands dispatched again after an edit.", null,
+                this.redispatched::sum);
+        metrics.counter("baclava_edit_replies_edited", "Replies edited in place after their command was edited.", null,
+                this.edited::sum);
+    }
+
+    /**
+     * Snowflakes grow with their creation time and entries are only added while their message is
+     * recent, so the map is roughly in expiry order and the scan stops at the first live entry.
+     */
+    private void expire(long now) {
+        Iterator<Tracked> entries = this.tracked.values().iterator();
+        while (entries.hasNext() && entries.next().expiresAt <= now) entries.remove();
+    }
+
+    private static long expiry(long messageId, long windowMillis) {
+        return (messageId >>> 22) + DISCORD_EPOCH + windowMillis;
+    }
+
+    private static class Tracked {
+        final long expiresAt;
+        long editedAt;
+        long replyId;
+
+        Tracked(long expiresAt, long editedAt) {
+            this.expiresAt = expiresAt;
+            this.editedAt = editedAt;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task of the {@link TaskScheduler}: the name of the handler to run and a payload for it.
+ */
+public class ScheduledTask {
+    private final TaskScheduler scheduler;
+    private final long id;
+    private final String handler;
+    private final String payload;
+    private final long interval;
+    volatile long deadline;
+    volatile HashedWheelTimer.Timeout timeout;
+
+    ScheduledTask(TaskScheduler scheduler, long id, String handler, String payload, long deadline, long interval) {
+        this.scheduler = scheduler;
+        this.id = id;
+        this.handler = handler;
+        this.payload = payload;
+        this.deadline = deadline;
+        this.interval = interval;
+    }
+
+    /**
+     * Cancel this task, and all its next runs if it is recurring.
+     *
+     * @see TaskScheduler#cancel(long id)
+     */
+    public void cancel() {
+        this.scheduler.cancel(this.id);
+    }
+
+    /**
+     * @return The task ID, stable across restarts.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return The name of the handler running this task.
+     */
+    public String getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return The payload given when scheduling, for example the reminder text.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return When the task is due (or was due, while it runs), in epoch milliseconds.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param unit The unit to get the interval in.
+     * @return The time between runs, or 0 if the task runs once.
+     */
+    public long getInterval(TimeUnit unit) {
+        return unit.convert(this.interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return True if the task runs at a fixed rate until cancelled.
+     */
+    public boolean isRecurring() {
+        return interval > 0;
+    }
+
+    long getIntervalMillis() {
+        return interval;
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduledTask{id=" + this.id + ", handler=" + this.handler + ", deadline=" + this.deadline
+                + ", interval=" + this.interval + "}";
+    }
+}
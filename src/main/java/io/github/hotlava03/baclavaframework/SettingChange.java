@@ -0,0 +1,85 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A guild setting changed, through {@link SettingsStore#set(long guildId, SettingKey key, Object value)}
+ * or found changed when the guild was reloaded.
+ *
+ * @see SettingsStore#addListener(java.util.function.Consumer listener)
+ */
+public class SettingChange {
+    private final long guildId;
+    private final String name;
+    private final String oldValue;
+    private final String newValue;
+
+    SettingChange(long guildId, String name, String oldValue, String newValue) {
+        this.guildId = guildId;
+        this.name = name;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    /**
+     * @return The guild ID.
+     */
+    public long getGuildId() {
+        return guildId;
+    }
+
+    /**
+     * @return The setting name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param key The setting.
+     * @return True if this change is about the setting.
+     */
+    public boolean is(SettingKey<?> key) {
+        return this.name.equals(key.getName());
+    }
+
+    /**
+     * @return The previous value as stored, or null if it wasn't set.
+     */
+    @Nullable
+    public String getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * @return The new value as stored, or null if it went back to the default.
+     */
+    @Nullable
+    public String getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public String toString() {
+        return "SettingChange{guildId=" + this.guildId + ", name=" + this.name + ", oldValue=" + this.oldValue
+                + ", newValue=" + this.newValue + "}";
+    }
+}
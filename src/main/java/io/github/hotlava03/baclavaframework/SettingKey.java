@@ -0,0 +1,126 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * A typed guild setting: its name, default value and how it is stored as text.
+ * Declare keys once, as constants:
+ * <pre>{@code
+ * static final SettingKey<String> LANGUAGE = SettingKey.ofString("language", "en");
+ * static final SettingKey<Long> LOG_CHANNEL = SettingKey.ofLong("log-channel", 0);
+ * }</pre>
+ *
+ * @param <T> The setting type.
+ * @see GuildSettings#get(SettingKey key)
+ */
+public final class SettingKey<T> {
+    private final String name;
+    private final T defaultValue;
+    private final Function<String, T> parser;
+    private final Function<T, String> formatter;
+
+    private SettingKey(String name, T defaultValue, Function<String, T> parser, Function<T, String> formatter) {
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("The setting name cannot be empty!");
+        this.name = name;
+        this.defaultValue = defaultValue;
+        this.parser = parser;
+        this.formatter = formatter;
+    }
+
+    /**
+     * @param name The setting name.
+     * @param defaultValue The value of guilds that didn't set it.
+     * @return A text setting.
+     */
+    public static SettingKey<String> ofString(String name, String defaultValue) {
+        return new SettingKey<>(name, defaultValue, Function.identity(), Function.identity());
+    }
+
+    /**
+     * @param name The setting name.
+     * @param defaultValue The value of guilds that didn't set it.
+     * @return A toggle.
+     */
+    public static SettingKey<Boolean> ofBoolean(String name, boolean defaultValue) {
+        return new SettingKey<>(name, defaultValue, Boolean::valueOf, String::valueOf);
+    }
+
+    /**
+     * @param name The setting name.
+     * @param defaultValue The value of guilds that didn't set it.
+     * @return A number setting, also fit for channel and role IDs.
+     */
+    public static SettingKey<Long> ofLong(String name, long defaultValue) {
+        return new SettingKey<>(name, defaultValue, Long::valueOf, String::valueOf);
+    }
+
+    /**
+     * @param name The setting name.
+     * @param type The enum class.
+     * @param defaultValue The value of guilds that didn't set it.
+     * @param <E> The enum type.
+     * @return A setting holding one of the enum constants.
+     */
+    public static <E extends Enum<E>> SettingKey<E> ofEnum(String name, Class<E> type, E defaultValue) {
+        return new SettingKey<>(name, defaultValue, raw -> Enum.valueOf(type, raw.toUpperCase(Locale.ROOT)), Enum::name);
+    }
+
+    /**
+     * @param name The setting name.
+     * @param defaultValue The value of guilds that didn't set it.
+     * @param parser Turns the stored text into a value. May throw if the text is invalid.
+     * @param formatter Turns a value into the text to store.
+     * @param <T> The setting type.
+     * @return A setting of any type.
+     */
+    public static <T> SettingKey<T> of(String name, T defaultValue, Function<String, T> parser,
+                                       Function<T, String> formatter) {
+        return new SettingKey<>(name, defaultValue, parser, formatter);
+    }
+
+    /**
+     * @return The setting name, as stored.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The value of guilds that didn't set it.
+     */
+    public T getDefaultValue() {
+        return defaultValue;
+    }
+
+    T parse(String raw) {
+        return this.parser.apply(raw);
+    }
+
+    String format(T value) {
+        return this.formatter.apply(value);
+    }
+
+    @Override
+    public String toString() {
+        return "SettingKey{" + this.name + "}";
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Where guild settings are kept, as text. The default, {@link FileSettingsLoader}, keeps a file per
+ * guild; implement this to keep them in a database instead. Called from the settings threads and
+ * from {@link SettingsStore#set(long guildId, SettingKey key, Object value)}, never from the dispatch
+ * path once a guild is cached.
+ *
+ * @see BaclavaFrameworkBuilder#setSettingsLoader(SettingsLoader loader)
+ */
+public interface SettingsLoader {
+    /**
+     * @param guildId The guild ID.
+     * @return The settings of the guild by name, empty if it never set any.
+     * @throws IOException If the settings can't be read.
+     */
+    Map<String, String> load(long guildId) throws IOException;
+
+    /**
+     * @param guildId The guild ID.
+     * @param name The setting name.
+     * @param value The new value, or null to go back to the default.
+     * @throws IOException If the setting can't be written.
+     */
+    void save(long guildId, String name, String value) throws IOException;
+}
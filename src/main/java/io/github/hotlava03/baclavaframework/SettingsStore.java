@@ -0,0 +1,340 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Per-guild settings, read through a near cache of the most recently used guilds in front of a
+ * {@link SettingsLoader}. A guild is loaded on first use, concurrent loads of the same guild share
+ * one read, and cached guilds are reloaded in the background once they are a few minutes old, so
+ * reads on hot commands stay in memory. Guilds unused for a while are reloaded before being served.
+ *
+ * @see BaclavaFramework#getSettings()
+ * @see CommandEvent#getSettings()
+ */
+public class SettingsStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SettingsStore.class);
+    private static final long FAILURE_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int STRIPES = 64;
+
+    private final SettingsLoader loader;
+    private final Executor executor;
+    private final int maxGuilds;
+    private final long refreshNanos;
+    private final long expireNanos;
+    private final Map<Long, CachedGuild> cache;
+    private final Map<Long, CompletableFuture<GuildSettings>> loading = new ConcurrentHashMap<>();
+    private final List<Consumer<SettingChange>> listeners = new CopyOnWriteArrayList<>();
+    // Bumped by every write to a guild of the stripe, so a load that raced with one doesn't cache what it read.
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    // Serialize the writes to a guild, so the cache sees them in the order the loader did.
+    private final Object[] locks = new Object[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param loader Where the settings are kept.
+     * @param executor Runs background reloads.
+     * @param maxGuilds The amount of guilds cached.
+     * @param refresh The age after which a cached guild is reloaded in the background.
+     * @param expire The age after which a cached guild is reloaded before being served.
+     * @param unit The unit of refresh and expire.
+     */
+    SettingsStore(SettingsLoader loader, Executor executor, int maxGuilds, long refresh, long expire, TimeUnit unit) {
+        this.loader = loader;
+        this.executor = executor;
+        this.maxGuilds = maxGuilds;
+        this.refreshNanos = unit.toNanos(refresh);
+        this.expireNanos = unit.toNanos(expire);
+        this.cache = new LinkedHashMap<Long, CachedGuild>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedGuild> eldest) {
+                return this.size() > SettingsStore.this.maxGuilds;
+            }
+        };
+        for (int i = 0; i < STRIPES; i++) this.locks[i] = new Object();
+    }
+
+    /**
+     * Get the settings of a guild, loading them if they aren't cached. If they can't be loaded,
+     * the last known settings are returned, or defaults if there are none, and the guild isn't
+     * loaded again for 10 seconds.
+     *
+     * @param guildId The guild ID.
+     * @return The settings of the guild.
+     */
+    public GuildSettings get(long guildId) {
+        CachedGuild entry;
+        synchronized (this.cache) {
+            entry = this.cache.get(guildId);
+        }
+        if (entry != null) {
+            long age = System.nanoTime() - entry.loadedAt;
+            if (age < (entry.failed ? FAILURE_NANOS : this.expireNanos)) {
+                this.hits.increment();
+                if (!entry.failed && age >= this.refreshNanos && !this.loading.containsKey(guildId)) {
+                    this.refreshes.increment();
+                    this.load(guildId, true);
+                }
+                return entry.settings;
+            }
+        }
+
+        this.misses.increment();
+        try {
+            return this.load(guildId, false).get();
+        } catch (ExecutionException e) {
+            LOGGER.error("Could not load the settings of guild " + guildId + ".", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return entry != null ? entry.settings : new GuildSettings(this, guildId, Collections.emptyMap());
+    }
+
+    /**
+     * Change a setting of a guild, then notify the listeners.
+     *
+     * @param guildId The guild ID.
+     * @param key The setting.
+     * @param value The new value, or null to go back to the default.
+     * @param <T> The setting type.
+     * @throws IOException If the setting can't be written.
+     */
+    public <T> void set(long guildId, SettingKey<T> key, T value) throws IOException {
+        String text = value == null ? null : key.format(value);
+        String old;
+        int stripe = stripe(guildId);
+        synchronized (this.locks[stripe]) {
+            CachedGuild entry;
+            synchronized (this.cache) {
+                entry = this.cache.get(guildId);
+            }
+            old = entry == null ? null : entry.settings.asMap().get(key.getName());
+            this.loader.save(guildId, key.getName(), text);
+            synchronized (this.cache) {
+                this.versions.incrementAndGet(stripe);
+                entry = this.cache.get(guildId);
+                if (entry != null) {
+                    Map<String, String> raw = new HashMap<>(entry.settings.asMap());
+                    if (text == null) raw.remove(key.getName());
+                    else raw.put(key.getName(), text);
+                    // Keep the load time, the background reload still catches changes made elsewhere.
+                    this.cache.put(guildId, new CachedGuild(new GuildSettings(this, guildId, raw), entry.loadedAt,
+                            entry.failed));
+                }
+            }
+        }
+        if (!Objects.equals(old, text)) this.fire(new SettingChange(guildId, key.getName(), old, text));
+    }
+
+    /**
+     * Reload a guild in the background, for example after its settings were changed by another
+     * process. Listeners are notified of the settings found changed.
+     *
+     * @param guildId The guild ID.
+     */
+    public void invalidate(long guildId) {
+        boolean cached;
+        synchronized (this.cache) {
+            cached = this.cache.containsKey(guildId);
+        }
+        if (cached) this.load(guildId, true);
+    }
+
+    /**
+     * @param listener Called with every setting changed, on the thread that changed or reloaded it.
+     */
+    public void addListener(Consumer<SettingChange> listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * @param listener A listener added before.
+     */
+    public void removeListener(Consumer<SettingChange> listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * @return The amount of guilds cached.
+     */
+    public int getCachedGuilds() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    /**
+     * @param action Called with every cached guild, from the least to the most recently used, and its age in nanoseconds.
+     */
+    void forEachCached(ObjLongConsumer<GuildSettings> action) {
+        List<CachedGuild> entries;
+        synchronized (this.cache) {
+            entries = new ArrayList<>(this.cache.values());
+        }
+        long now = System.nanoTime();
+        for (CachedGuild entry : entries)
+            if (!entry.failed) action.accept(entry.settings, now - entry.loadedAt);
+    }
+
+    /**
+     * Cache settings kept from an earlier run, unless the guild was loaded since.
+     *
+     * @param age How old the settings are, in nanoseconds.
+     * @return False if they were too old to be cached.
+     */
+    boolean restore(long guildId, Map<String, String> raw, long age) {
+        if (age >= this.expireNanos) return false;
+        synchronized (this.cache) {
+            if (this.cache.containsKey(guildId)) return false;
+            this.cache.put(guildId, new CachedGuild(new GuildSettings(this, guildId, raw), System.nanoTime() - age,
+                    false));
+        }
+        return true;
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_settings_cached_guilds", "Guilds whose settings are cached.", null, this::getCachedGuilds);
+        metrics.counter("baclava_settings_reads", "Settings reads by result.", "result=\"hit\"", this.hits::sum);
+        metrics.counter("baclava_settings_reads", "Settings reads by result.", "result=\"miss\"", this.misses::sum);
+        metrics.counter("baclava_settings_refreshes", "Background reloads of cached guilds.", null, this.refreshes::sum);
+        metrics.counter("baclava_settings_load_failures", "Guild loads that failed.", null, this.failures::sum);
+    }
+
+    /**
+     * Load a guild, or join the load already running.
+     *
+     * @param async Whether to load on the executor instead of this thread.
+     */
+    private CompletableFuture<GuildSettings> load(long guildId, boolean async) {
+        CompletableFuture<GuildSettings> future = new CompletableFuture<>();
+        CompletableFuture<GuildSettings> running = this.loading.putIfAbsent(guildId, future);
+        if (running != null) return running;
+        Runnable task = () -> this.read(guildId, future);
+        if (!async) {
+            task.run();
+            return future;
+        }
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            this.loading.remove(guildId);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void read(long guildId, CompletableFuture<GuildSettings> future) {
+        int stripe = stripe(guildId);
+        long version = this.versions.get(stripe);
+        long loadedAt = System.nanoTime();
+        GuildSettings settings;
+        try {
+            settings = new GuildSettings(this, guildId, new HashMap<>(this.loader.load(guildId)));
+        } catch (IOException | RuntimeException e) {
+            this.failures.increment();
+            // Remember the failure for a while, so reads don't all hit a loader that is down.
+            synchronized (this.cache) {
+                CachedGuild current = this.cache.get(guildId);
+                if (this.versions.get(stripe) == version && (current == null || current.failed
+                        || System.nanoTime() - current.loadedAt >= this.expireNanos)) {
+                    this.cache.put(guildId, new CachedGuild(current != null ? current.settings
+                            : new GuildSettings(this, guildId, Collections.emptyMap()), System.nanoTime(), true));
+                }
+            }
+            this.loading.remove(guildId);
+            future.completeExceptionally(e);
+            return;
+        }
+
+        CachedGuild previous = null;
+        synchronized (this.cache) {
+            if (this.versions.get(stripe) == version) {
+                previous = this.cache.get(guildId);
+                this.cache.put(guildId, new CachedGuild(settings, loadedAt, false));
+            }
+        }
+        this.loading.remove(guildId);
+        future.complete(settings);
+        if (previous != null && !previous.failed)
+            this.fireDifferences(guildId, previous.settings.asMap(), settings.asMap());
+    }
+
+    private static int stripe(long guildId) {
+        return (int) ((guildId ^ guildId >>> 32) & (STRIPES - 1));
+    }
+
+    private void fireDifferences(long guildId, Map<String, String> old, Map<String, String> current) {
+        if (this.listeners.isEmpty() || old.equals(current)) return;
+        Set<String> names = new HashSet<>(old.keySet());
+        names.addAll(current.keySet());
+        for (String name : names)
+            if (!Objects.equals(old.get(name), current.get(name)))
+                this.fire(new SettingChange(guildId, name, old.get(name), current.get(name)));
+    }
+
+    private void fire(SettingChange change) {
+        for (Consumer<SettingChange> listener : this.listeners) {
+            try {
+                listener.accept(change);
+            } catch (RuntimeException e) {
+                LOGGER.error("A settings listener threw an exception on " + change + ".", e);
+            }
+        }
+    }
+
+    private static class CachedGuild {
+        final GuildSettings settings;
+        final long loadedAt;
+        // Defaults or stale settings kept after a failed load, only served for a short while.
+        final boolean failed;
+
+        CachedGuild(GuildSettings settings, long loadedAt, boolean failed) {
+            this.settings = settings;
+            this.loadedAt = loadedAt;
+            this.failed = failed;
+        }
+    }
+}
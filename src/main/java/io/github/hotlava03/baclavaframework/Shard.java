@@ -0,0 +1,59 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import club.minnced.jda.reactor.ReactiveEventManager;
+import net.dv8tion.jda.api.JDA;
+
+/**
+ * A gateway connection with its own event manager.
+ */
+class Shard {
+    final int id;
+    final int total;
+    final ReactiveEventManager manager;
+    final EventRateMeter events = new EventRateMeter();
+    JDA jda;
+    /**
+     * Drops messages delivered twice, or null if disabled.
+     */
+    DuplicateFilter duplicates;
+
+    /**
+     * @param id The shard ID.
+     * @param total The shard total, or 0 when not sharding.
+     */
+    Shard(int id, int total, ReactiveEventManager manager) {
+        this.id = id;
+        this.total = total;
+        this.manager = manager;
+    }
+
+    ShardStatus getStatus() {
+        return new ShardStatus(this.id, this.jda.getStatus(), this.jda.getGatewayPing(), this.events.getTotal(),
+                this.events.getRate());
+    }
+
+    /**
+     * @return Labels identifying this shard in the metrics, null when not sharding.
+     */
+    String getLabels() {
+        return this.total == 0 ? null : "shard=\"" + this.id + "\"";
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import net.dv8tion.jda.api.JDA;
+
+/**
+ * Health of a single shard at the moment it was requested.
+ *
+ * @see BaclavaFramework#getShardStatuses()
+ */
+public class ShardStatus {
+    private final int shardId;
+    private final JDA.Status status;
+    private final long gatewayPing;
+    private final long events;
+    private final double eventRate;
+
+    ShardStatus(int shardId, JDA.Status status, long gatewayPing, long events, double eventRate) {
+        this.shardId = shardId;
+        this.status = status;
+        this.gatewayPing = gatewayPing;
+        this.events = events;
+        this.eventRate = eventRate;
+    }
+
+    /**
+     * @return The shard ID, 0 when not sharding.
+     */
+    public int getShardId() {
+        return shardId;
+    }
+
+    /**
+     * @return The JDA connection status.
+     */
+    public JDA.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return True if the shard is connected to the gateway.
+     */
+    public boolean isConnected() {
+        return status == JDA.Status.CONNECTED;
+    }
+
+    /**
+     * @return The last heartbeat round trip in milliseconds.
+     */
+    public long getGatewayPing() {
+        return gatewayPing;
+    }
+
+    /**
+     * @return The events received since the shard started.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * @return The average events per second over the last minute.
+     */
+    public double getEventRate() {
+        return eventRate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Shard %d: %s, ping %dms, %.1f events/s", this.shardId, this.status, this.gatewayPing,
+                this.eventRate);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link BaclavaFramework#shutdown(java.time.Duration timeout)} managed to finish before
+ * closing the connections, and what it had to abandon.
+ */
+public class ShutdownReport {
+    private final long drainedCommands;
+    private final long abandonedCommands;
+    private final long drainedReplies;
+    private final long abandonedReplies;
+    private final long refusedMessages;
+    private final int cancelledWaits;
+    private final boolean sinksFlushed;
+    private final long elapsedNanos;
+
+    ShutdownReport(long drainedCommands, long abandonedCommands, long drainedReplies, long abandonedReplies,
+                   long refusedMessages, int cancelledWaits, boolean sinksFlushed, long elapsedNanos) {
+        this.drainedCommands = drainedCommands;
+        this.abandonedCommands = abandonedCommands;
+        this.drainedReplies = drainedReplies;
+        this.abandonedReplies = abandonedReplies;
+        this.refusedMessages = refusedMessages;
+        this.cancelledWaits = cancelledWaits;
+        this.sinksFlushed = sinksFlushed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The commands that were running or queued when the shutdown started, and finished in time.
+     */
+    public long getDrainedCommands() {
+        return drainedCommands;
+    }
+
+    /**
+     * @return The commands still running or queued when the timeout expired.
+     */
+    public long getAbandonedCommands() {
+        return abandonedCommands;
+    }
+
+    /**
+     * @return The replies sent or failed during the shutdown.
+     */
+    public long getDrainedReplies() {
+        return drainedReplies;
+    }
+
+    /**
+     * @return The replies still waiting for Discord when the timeout expired.
+     */
+    public long getAbandonedReplies() {
+        return abandonedReplies;
+    }
+
+    /**
+     * @return The messages received during the shutdown, which were not dispatched.
+     */
+    public long getRefusedMessages() {
+        return refusedMessages;
+    }
+
+    /**
+     * @return The reactions and messages still being waited for, cancelled without running their timeout action.
+     *
+     * @see EventWaiter
+     */
+    public int getCancelledWaits() {
+        return cancelledWaits;
+    }
+
+    /**
+     * @return True if the audit log, usage stats and scheduler journal were all written out in time.
+     */
+    public boolean isSinksFlushed() {
+        return sinksFlushed;
+    }
+
+    /**
+     * @return True if nothing was abandoned.
+     */
+    public boolean isClean() {
+        return this.abandonedCommands == 0 && this.abandonedReplies == 0 && this.sinksFlushed;
+    }
+
+    /**
+     * @param unit The unit to get the duration in.
+     * @return How long the shutdown took.
+     */
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(this.elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "ShutdownReport{drainedCommands=" + this.drainedCommands + ", abandonedCommands=" + this.abandonedCommands
+                + ", drainedReplies=" + this.drainedReplies + ", abandonedReplies=" + this.abandonedReplies
+                + ", refusedMessages=" + this.refusedMessages + ", cancelledWaits=" + this.cancelledWaits
+                + ", sinksFlushed=" + this.sinksFlushed + ", elapsedMs=" + this.getElapsed(TimeUnit.MILLISECONDS) + "}";
+    }
+}
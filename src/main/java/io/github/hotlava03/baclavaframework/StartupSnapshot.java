@@ -0,0 +1,306 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the warm state of a framework, written at shutdown and mapped back in at startup,
+ * so a restarted bot doesn't start cold: the cached guild settings, the learned outbound reply limit and
+ * the plugin commands that were instantiated. The commands themselves are always registered again by
+ * {@link CommandRegisterer#handleRegistration()}, so the snapshot only keeps a fingerprint of them, and
+ * the plugin commands are only preloaded if it still matches.
+ * <p>
+ * The file starts with a 32 byte header: magic, format version, command fingerprint, write time,
+ * payload length and payload CRC32. A snapshot of another version, or a corrupted one, is ignored.
+ *
+ * @see BaclavaFrameworkBuilder#setSnapshotFile(Path file)
+ */
+class StartupSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupSnapshot.class);
+    private static final int MAGIC = 0x42434c53;
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+
+    private final long fingerprint;
+    private final long writtenAt;
+    private final double outboundLimit;
+    private final List<CachedSettings> settings;
+    private final List<String> preloaded;
+
+    private StartupSnapshot(long fingerprint, long writtenAt, double outboundLimit, List<CachedSettings> settings,
+                            List<String> preloaded) {
+        this.fingerprint = fingerprint;
+        this.writtenAt = writtenAt;
+        this.outboundLimit = outboundLimit;
+        this.settings = settings;
+        this.preloaded = preloaded;
+    }
+
+    /**
+     * Write the snapshot of a framework to a temporary file, then replace the old one atomically.
+     *
+     * @param file The snapshot file.
+     * @param registerer The registered commands.
+     * @param services The services to snapshot.
+     * @throws IOException If the file can't be written.
+     */
+    static void write(Path file, CommandRegisterer registerer, FrameworkServices services) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeDouble(services.outbound == null ? Double.NaN : services.outbound.getLimit());
+
+        List<CachedSettings> settings = new ArrayList<>();
+        if (services.settings != null)
+            services.settings.forEachCached((guild, age) -> settings.add(new CachedSettings(guild.getGuildId(),
+                    TimeUnit.NANOSECONDS.toMillis(age), guild.asMap())));
+        out.writeInt(settings.size());
+        for (CachedSettings guild : settings) {
+            out.writeLong(guild.guildId);
+            out.writeLong(guild.ageMillis);
+            out.writeInt(guild.raw.size());
+            for (Map.Entry<String, String> setting : guild.raw.entrySet()) {
+                writeString(out, setting.getKey());
+                writeString(out, setting.getValue());
+            }
+        }
+
+        List<String> preloaded = new ArrayList<>();
+        registerer.getCommands().forEach((name, command) -> {
+            if (command instanceof LazyCommand && ((LazyCommand) command).isInstantiated()) preloaded.add(name);
+        });
+        out.writeInt(preloaded.size());
+        for (String name : preloaded) writeString(out, name);
+        out.flush();
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(fingerprint(registerer))
+                .putLong(System.currentTimeMillis())
+                .putInt(payload.length)
+                .putInt((int) crc.getValue());
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temp)) {
+            stream.write(header.array());
+            stream.write(payload);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Map a snapshot in and check it.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot, or null if there is none or it can't be used.
+     */
+    static StartupSnapshot read(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) {
+                LOGGER.warn("Ignored the snapshot " + file + ", it is truncated or too large.");
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOGGER.warn("Ignored the snapshot " + file + ", it isn't a snapshot of this version.");
+                return null;
+            }
+            long fingerprint = buffer.getLong();
+            long writtenAt = buffer.getLong();
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length != size - HEADER) {
+                LOGGER.warn("Ignored the snapshot " + file + ", it is truncated.");
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != expected) {
+                LOGGER.warn("Ignored the snapshot " + file + ", it is corrupted.");
+                return null;
+            }
+            return parse(buffer, fingerprint, writtenAt);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            LOGGER.warn("Could not read the snapshot " + file + ".", e);
+            return null;
+        }
+    }
+
+    /**
+     * Put the snapshot state back into freshly created services. Settings older than the settings
+     * cache would keep them are skipped, the others are reloaded in the background on first use.
+     * Plugin commands are instantiated on a background thread.
+     *
+     * @param registerer The registered commands.
+     * @param services The services to restore.
+     */
+    void restore(CommandRegisterer registerer, FrameworkServices services) {
+        long downtimeMillis = Math.max(0, System.currentTimeMillis() - this.writtenAt);
+        if (services.outbound != null && !Double.isNaN(this.outboundLimit))
+            services.outbound.restoreLimit(this.outboundLimit);
+
+        int guilds = 0;
+        if (services.settings != null) {
+            for (CachedSettings guild : this.settings)
+                if (services.settings.restore(guild.guildId, guild.raw,
+                        TimeUnit.MILLISECONDS.toNanos(guild.ageMillis + downtimeMillis))) guilds++;
+        }
+
+        List<LazyCommand> commands = new ArrayList<>();
+        boolean matches = this.fingerprint == fingerprint(registerer);
+        if (matches) {
+            for (String name : this.preloaded) {
+                Command command = registerer.getCommands().get(name);
+                if (command instanceof LazyCommand && !((LazyCommand) command).isInstantiated())
+                    commands.add((LazyCommand) command);
+            }
+        }
+        if (!commands.isEmpty()) {
+            BaclavaFrameworkBuilder.daemonThreads("baclava-snapshot").newThread(() -> {
+                for (LazyCommand command : commands) {
+                    try {
+                        command.preload();
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Could not preload the plugin command " + command.getName() + ".", e);
+                    }
+                }
+            }).start();
+        }
+        LOGGER.info("Restored the settings of " + guilds + " guilds from a snapshot taken "
+                + TimeUnit.MILLISECONDS.toSeconds(downtimeMillis) + "s ago, "
+                + (matches ? "preloading " + commands.size() + " plugin commands."
+                : "the commands changed since, so no plugin command is preloaded."));
+    }
+
+    /**
+     * Hash the names, aliases, categories and classes of the registered commands, in name order.
+     */
+    static long fingerprint(CommandRegisterer registerer) {
+        long hash = 0xcbf29ce484222325L;
+        for (Map.Entry<String, Command> entry : new TreeMap<>(registerer.getCommands()).entrySet()) {
+            Command command = entry.getValue();
+            hash = hash(hash, entry.getKey());
+            hash = hash(hash, command.getCategory());
+            String[] aliases = command.getAliases().clone();
+            Arrays.sort(aliases);
+            for (String alias : aliases) hash = hash(hash, alias);
+            hash = hash(hash, command instanceof LazyCommand
+                    ? ((LazyCommand) command).getClassName() : command.getClass().getName());
+        }
+        return hash;
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units of a string, followed by a separator so "ab", "c"
+     * and "a", "bc" hash differently.
+     */
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        hash ^= 0xffff;
+        return hash * 0x100000001b3L;
+    }
+
+    private static StartupSnapshot parse(ByteBuffer buffer, long fingerprint, long writtenAt) {
+        double outboundLimit = buffer.getDouble();
+        int guilds = count(buffer, 20);
+        List<CachedSettings> settings = new ArrayList<>(guilds);
+        for (int i = 0; i < guilds; i++) {
+            long guildId = buffer.getLong();
+            long ageMillis = buffer.getLong();
+            int entries = count(buffer, 8);
+            Map<String, String> raw = new HashMap<>();
+            for (int j = 0; j < entries; j++) raw.put(readString(buffer), readString(buffer));
+            settings.add(new CachedSettings(guildId, ageMillis, raw));
+        }
+        int commands = count(buffer, 4);
+        List<String> preloaded = new ArrayList<>(commands);
+        for (int i = 0; i < commands; i++) preloaded.add(readString(buffer));
+        return new StartupSnapshot(fingerprint, writtenAt, outboundLimit, settings, preloaded);
+    }
+
+    /**
+     * Read a count, checking it fits in what is left of the buffer given the minimum size of an element.
+     */
+    private static int count(ByteBuffer buffer, int minSize) {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * minSize > buffer.remaining())
+            throw new IllegalArgumentException("Invalid element count " + count + ".");
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[count(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class CachedSettings {
+        final long guildId;
+        final long ageMillis;
+        final Map<String, String> raw;
+
+        CachedSettings(long guildId, long ageMillis, Map<String, String> raw) {
+            this.guildId = guildId;
+            this.ageMillis = ageMillis;
+            this.raw = raw;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where cooldowns and rate limits are counted. The default, {@link InMemoryStateStore}, only counts
+ * the invocations of this process; when shards run in separate processes, give every process a
+ * store they share, like a {@link RemoteStateStore} connected to a {@link StateStoreServer}, so
+ * users can't get around limits by using guilds on different processes.
+ * <p>
+ * Every node takes permits in batches (leases) and hands them out locally, and remembers exhausted
+ * quotas until they reset, so most checks never reach the store.
+ *
+ * @see BaclavaFrameworkBuilder#setStateStore(StateStore store)
+ * @see Command#setRateLimit(int invocations, long period, java.util.concurrent.TimeUnit unit)
+ */
+public interface StateStore {
+    /**
+     * Atomically take up to {@code permits} from the quota of a key. The window of a key starts with
+     * the first acquisition after the previous one ended, and at most {@code limit} permits are
+     * granted during it.
+     *
+     * @param key The quota key.
+     * @param permits The amount of permits wanted.
+     * @param limit The amount of permits available per window.
+     * @param windowMillis The window length, in milliseconds.
+     * @return The permits granted, possibly 0, and the time left in the window.
+     */
+    CompletableFuture<Quota> acquire(String key, long permits, long limit, long windowMillis);
+
+    /**
+     * Release the resources of the store. Called when the framework shuts down.
+     */
+    default void close() {
+    }
+}
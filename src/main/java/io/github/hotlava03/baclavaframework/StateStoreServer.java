@@ -0,0 +1,142 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves a {@link StateStore} to {@link RemoteStateStore}s over TCP on the loopback interface, as a
+ * reference for a shared store between processes of the same host. Each connection is read by its
+ * own thread; requests are answered in order and responses are flushed once no more requests are
+ * waiting, so pipelined batches cost a single write.
+ * <p>
+ * Requests are {@code int id, UTF key, long permits, long limit, long windowMillis}, responses are
+ * {@code int id, long granted, long remainingMillis}, all big endian.
+ */
+public class StateStoreServer implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateStoreServer.class);
+
+    private final StateStore store;
+    private final ServerSocket server;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Start serving.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @param store The store to serve, usually an {@link InMemoryStateStore}.
+     * @throws IOException If the port can't be bound.
+     */
+    public StateStoreServer(int port, StateStore store) throws IOException {
+        this.store = store;
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Thread acceptor = new Thread(this::accept, "baclava-state-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return The address clients connect to.
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) this.server.getLocalSocketAddress();
+    }
+
+    /**
+     * Stop accepting connections and close the open ones. The store isn't closed.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.server.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close the state store server.", e);
+        }
+        for (Socket socket : this.connections) closeQuietly(socket);
+    }
+
+    private void accept() {
+        while (!this.closed) {
+            Socket socket;
+            try {
+                socket = this.server.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                if (!this.closed) LOGGER.error("Could not accept a state store connection.", e);
+                return;
+            }
+            this.connections.add(socket);
+            Thread reader = new Thread(() -> this.serve(socket), "baclava-state-server-" + socket.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int id = in.readInt();
+                String key = in.readUTF();
+                long permits = in.readLong();
+                long limit = in.readLong();
+                long window = in.readLong();
+                Quota quota = this.store.acquire(key, permits, limit, window).join();
+                out.writeInt(id);
+                out.writeLong(quota.getGranted());
+                out.writeLong(quota.getRemainingMillis());
+                if (in.available() == 0) out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            // The client went away.
+        } catch (IOException | RuntimeException e) {
+            if (!this.closed) LOGGER.error("State store connection from port " + socket.getPort() + " failed.", e);
+        } finally {
+            this.connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it.
+        }
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs delayed and recurring tasks, such as reminders, timed mutes or periodic posts, and
+ * keeps them across restarts. A task is the name of a handler and a string payload, so it
+ * can be written down; register the handlers once at startup:
+ * <pre>{@code
+ * scheduler.registerHandler("remind", task -> jda.getTextChannelById(...).sendMessage(task.getPayload()).queue());
+ * scheduler.schedule("remind", "Drink water", 2, TimeUnit.HOURS);
+ * }</pre>
+ * Every change is appended to a journal, compacted at startup and when it gets mostly
+ * obsolete. Only the tasks due in the next ten minutes are held in memory, on a hashed
+ * timing wheel; later ones are read back from the journal as they come close, so the amount
+ * of pending tasks is bounded by the disk rather than the heap. Tasks run on the command
+ * executor when there is one, and at least once: a task running during a crash runs again.
+ *
+ * @see BaclavaFrameworkBuilder#setScheduler(Path directory)
+ */
+public class TaskScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskScheduler.class);
+    private static final long HORIZON = TimeUnit.MINUTES.toMillis(10);
+
+    private final Path file;
+    private final Map<String, Consumer<ScheduledTask>> handlers = new ConcurrentHashMap<>();
+    private final Map<String, List<ScheduledTask>> parked = new ConcurrentHashMap<>();
+    private final Map<Long, ScheduledTask> loaded = new ConcurrentHashMap<>();
+    private final Set<Long> touchedWhileScanning = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ScheduledExecutorService maintenance;
+    private final ExecutorService executor;
+    private final HashedWheelTimer timer;
+    private FileChannel journal;
+    private long records;
+    private long live;
+    private volatile long loadedUntil;
+    private volatile boolean scanning;
+
+    /**
+     * @param directory Where to keep the journal.
+     * @param executor Runs the tasks, or null to run them on the scheduler thread.
+     * @throws IOException If the journal can't be read or created.
+     */
+    TaskScheduler(Path directory, ExecutorService executor) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve("tasks.journal");
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(BaclavaFrameworkBuilder.daemonThreads("baclava-scheduler"));
+        this.executor = executor == null ? this.maintenance : executor;
+        this.timer = new HashedWheelTimer("baclava-scheduler-wheel", 100, TimeUnit.MILLISECONDS, 1024, this::execute);
+        this.compact();
+        this.refill();
+        this.maintenance.scheduleWithFixedDelay(this::maintain, HORIZON / 2, HORIZON / 2, TimeUnit.MILLISECONDS);
+        this.maintenance.scheduleWithFixedDelay(this::flush, 30, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Set what runs the tasks scheduled with a handler name. Tasks already due for this
+     * handler, for example reloaded from the journal, are handed to the executor now.
+     *
+     * @param name The handler name, without tabs or line breaks.
+     * @param handler The handler.
+     */
+    public void registerHandler(String name, Consumer<ScheduledTask> handler) {
+        checkName(name);
+        this.handlers.put(name, handler);
+        List<ScheduledTask> due = this.parked.remove(name);
+        if (due != null) for (ScheduledTask task : due) this.execute(() -> this.run(task));
+    }
+
+    /**
+     * Run a task once after a delay.
+     *
+     * @param handler The name of the handler to run.
+     * @param payload The payload passed to the handler, may be empty.
+     * @param delay The delay before running.
+     * @param unit The delay unit.
+     * @return The scheduled task.
+     * @throws IllegalArgumentException If the handler name contains tabs or line breaks.
+     * @throws IllegalStateException If the task can't be written to the journal.
+     */
+    public ScheduledTask schedule(String handler, String payload, long delay, TimeUnit unit) {
+        return this.add(handler, payload, System.currentTimeMillis() + unit.toMillis(delay), 0);
+    }
+
+    /**
+     * Run a task at a fixed rate until it is cancelled. Runs missed while the bot was
+     * offline are skipped, except for one.
+     *
+     * @param handler The name of the handler to run.
+     * @param payload The payload passed to the handler, may be empty.
+     * @param initialDelay The delay before the first run.
+     * @param period The time between runs, at least one second.
+     * @param unit The delay and period unit.
+     * @return The scheduled task.
+     * @throws IllegalArgumentException If the period is shorter than a second, or the handler name
+     *                                  contains tabs or line breaks.
+     * @throws IllegalStateException If the task can't be written to the journal.
+     */
+    public ScheduledTask scheduleAtFixedRate(String handler, String payload, long initialDelay, long period, TimeUnit unit) {
+        if (unit.toMillis(period) < 1000) throw new IllegalArgumentException("The period must be at least a second.");
+        return this.add(handler, payload, System.currentTimeMillis() + unit.toMillis(initialDelay), unit.toMillis(period));
+    }
+
+    /**
+     * Cancel a task, even if it was scheduled before a restart. Tasks not due soon are looked up
+     * in the journal. Unknown, finished and cancelled tasks are ignored.
+     *
+     * @param id The task ID.
+     * @throws IllegalStateException If the journal can't be read, or the cancellation can't be written to it.
+     */
+    public void cancel(long id) {
+        if (id <= 0 || id >= this.nextId.get()) return;
+        this.touch(id);
+        ScheduledTask task = this.loaded.remove(id);
+        if (task != null) {
+            this.unpark(task);
+        } else if (!this.isOnDisk(id)) {
+            return;
+        }
+        this.append("D\t" + id + "\n", -1);
+        // A refill which read the journal before the cancellation may have loaded it meanwhile.
+        this.touch(id);
+        task = this.loaded.remove(id);
+        if (task != null) this.unpark(task);
+    }
+
+    /**
+     * Stop a cancelled task from running, whether it waits on the wheel or for its handler.
+     */
+    private void unpark(ScheduledTask task) {
+        if (task.timeout != null) task.timeout.cancel();
+        List<ScheduledTask> waiting = this.parked.get(task.getHandler());
+        if (waiting != null) waiting.remove(task);
+    }
+
+    /**
+     * @return The amount of tasks not yet run or cancelled, including the ones only on disk.
+     */
+    public synchronized long getPending() {
+        return this.live;
+    }
+
+    /**
+     * Write the journal to disk. Also done every 30 seconds.
+     */
+    public synchronized void flush() {
+        try {
+            if (this.journal != null) this.journal.force(false);
+        } catch (IOException e) {
+            LOGGER.error("Could not flush the task journal.", e);
+        }
+    }
+
+    void close() {
+        this.timer.stop();
+        this.maintenance.shutdown();
+        synchronized (this) {
+            this.flush();
+            try {
+                this.journal.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close the task journal.", e);
+            }
+        }
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_scheduler_pending_tasks", "Scheduled tasks not yet run or cancelled.", null,
+                this::getPending);
+        metrics.gauge("baclava_scheduler_loaded_tasks", "Scheduled tasks due soon enough to be held in memory.", null,
+                this.loaded::size);
+    }
+
+    private ScheduledTask add(String handler, String payload, long deadline, long interval) {
+        checkName(handler);
+        ScheduledTask task = new ScheduledTask(this, this.nextId.getAndIncrement(), handler,
+                payload == null ? "" : payload, deadline, interval);
+        this.append(record(task), 1);
+        if (deadline < this.loadedUntil) this.load(task);
+        return task;
+    }
+
+    private void load(ScheduledTask task) {
+        if (this.loaded.putIfAbsent(task.getId(), task) != null) return;
+        task.timeout = this.timer.newTimeout(() -> this.due(task),
+                Math.max(task.deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called on the wheel executor when a task is due.
+     */
+    private void due(ScheduledTask task) {
+        if (this.loaded.get(task.getId()) != task) return;
+        if (this.handlers.containsKey(task.getHandler())) {
+            this.run(task);
+            return;
+        }
+        LOGGER.warn("No handler named " + task.getHandler() + " is registered, task " + task.getId() + " will run once it is.");
+        this.parked.computeIfAbsent(task.getHandler(), h -> Collections.synchronizedList(new ArrayList<>())).add(task);
+        // The handler may have been registered meanwhile, and missed this task.
+        if (this.handlers.containsKey(task.getHandler())) {
+            List<ScheduledTask> due = this.parked.remove(task.getHandler());
+            if (due != null) for (ScheduledTask parked : due) this.run(parked);
+        }
+    }
+
+    private void run(ScheduledTask task) {
+        // Cancelled while parked or waiting for the executor.
+        if (this.loaded.get(task.getId()) != task) return;
+        try {
+            this.handlers.get(task.getHandler()).accept(task);
+        } catch (RuntimeException e) {
+            LOGGER.error("Scheduled task " + task.getId() + " (" + task.getHandler() + ") threw an exception.", e);
+        }
+        if (this.loaded.get(task.getId()) != task) return; // Cancelled while running.
+
+        this.touch(task.getId());
+        if (!task.isRecurring()) {
+            this.loaded.remove(task.getId());
+            this.append("D\t" + task.getId() + "\n", -1);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long interval = task.getIntervalMillis();
+        long next = task.deadline + interval;
+        if (next <= now) next = now + interval - (now - task.deadline) % interval;
+        task.deadline = next;
+        this.append(record(task), 0);
+        if (next < this.loadedUntil) {
+            task.timeout = this.timer.newTimeout(() -> this.due(task), next - now, TimeUnit.MILLISECONDS);
+        } else {
+            this.loaded.remove(task.getId());
+        }
+    }
+
+    /**
+     * Check whether the latest record of a task in the journal schedules it.
+     */
+    private boolean isOnDisk(long id) {
+        long end;
+        synchronized (this) {
+            try {
+                end = this.journal.size();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read the task journal.", e);
+            }
+        }
+        boolean[] pending = {false};
+        try {
+            this.read(end, (record, fields) -> {
+                if (record == id) pending[0] = fields != null;
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the task journal.", e);
+        }
+        return pending[0];
+    }
+
+    private void execute(Runnable task) {
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("A scheduled task was rejected by the executor, it will run after a restart.");
+        }
+    }
+
+    private void touch(long id) {
+        if (this.scanning) this.touchedWhileScanning.add(id);
+    }
+
+    private void maintain() {
+        try {
+            boolean obsolete;
+            synchronized (this) {
+                obsolete = this.records > 2 * this.live + 10_000;
+            }
+            if (obsolete) this.compact();
+            this.refill();
+        } catch (IOException e) {
+            LOGGER.error("Could not read the task journal.", e);
+        }
+    }
+
+    /**
+     * Load the tasks due before the end of the next horizon. Tasks scheduled meanwhile are
+     * loaded directly, as the horizon is extended before reading.
+     */
+    private void refill() throws IOException {
+        long until = System.currentTimeMillis() + HORIZON;
+        long end;
+        synchronized (this) {
+            this.scanning = true;
+            this.loadedUntil = until;
+            this.journal.force(false);
+            end = this.journal.size();
+        }
+        try {
+            Map<Long, ScheduledTask> due = new HashMap<>();
+            this.read(end, (id, fields) -> {
+                if (fields == null) due.remove(id);
+                else {
+                    long deadline = Long.parseLong(fields[2]);
+                    if (deadline < until) due.put(id, new ScheduledTask(this, id, fields[4], unescape(fields[5]),
+                            deadline, Long.parseLong(fields[3])));
+                    else due.remove(id);
+                }
+            });
+            for (ScheduledTask task : due.values())
+                if (!this.touchedWhileScanning.contains(task.getId())) this.load(task);
+        } finally {
+            this.scanning = false;
+            this.touchedWhileScanning.clear();
+        }
+    }
+
+    /**
+     * Rewrite the journal with only the latest record of every pending task, after a record of
+     * the next task ID so that IDs aren't reused once the tasks using them are gone. Records
+     * appended while rewriting are copied over at the end.
+     */
+    private void compact() throws IOException {
+        long end;
+        long records;
+        long live;
+        synchronized (this) {
+            if (this.journal != null) this.journal.force(false);
+            end = Files.exists(this.file) ? Files.size(this.file) : 0;
+            records = this.records;
+            live = this.live;
+        }
+        LongLongMap latest = new LongLongMap();
+        long[] line = {0};
+        long[] maxId = {0};
+        long next = this.read(end, (id, fields) -> {
+            line[0]++;
+            maxId[0] = Math.max(maxId[0], id);
+            if (fields == null) latest.remove(id);
+            else latest.put(id, line[0]);
+        });
+        this.nextId.accumulateAndGet(Math.max(maxId[0] + 1, next), Math::max);
+
+        Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        long[] kept = {0};
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder batch = new StringBuilder(64 * 1024).append("N\t").append(this.nextId.get()).append('\n');
+            line[0] = 0;
+            this.read(end, (id, fields) -> {
+                line[0]++;
+                if (fields == null || latest.get(id) != line[0]) return;
+                batch.append(String.join("\t", fields)).append('\n');
+                kept[0]++;
+                if (batch.length() > 60 * 1024) writeFully(out, batch);
+            });
+            writeFully(out, batch);
+        }
+
+        synchronized (this) {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                if (Files.exists(this.file)) {
+                    try (FileChannel in = FileChannel.open(this.file, StandardOpenOption.READ)) {
+                        long size = in.size();
+                        for (long position = end; position < size; )
+                            position += in.transferTo(position, size - position, out);
+                    }
+                }
+                out.force(false);
+            }
+            if (this.journal != null) this.journal.close();
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.journal = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            this.records = kept[0] + this.records - records;
+            this.live = kept[0] + this.live - live;
+        }
+    }
+
+    private synchronized void append(String record, int liveDelta) {
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) this.journal.write(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to the task journal.", e);
+        }
+        this.records++;
+        this.live = Math.max(this.live + liveDelta, 0);
+    }
+
+    /**
+     * Read the journal up to a position, skipping a partially written last line.
+     * Schedules get their fields, cancellations and completions get null.
+     *
+     * @return The next task ID recorded by the last compaction, or 0.
+     */
+    private long read(long end, RecordConsumer consumer) throws IOException {
+        long next = 0;
+        if (end == 0) return next;
+        try (BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+            long position = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                position += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (position > end) break;
+                String[] fields = line.split("\t", 6);
+                try {
+                    if (fields[0].equals("S") && fields.length == 6) consumer.accept(Long.parseLong(fields[1]), fields);
+                    else if (fields[0].equals("D") && fields.length == 2) consumer.accept(Long.parseLong(fields[1]), null);
+                    else if (fields[0].equals("N") && fields.length == 2) next = Math.max(next, Long.parseLong(fields[1]));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Skipped a corrupted task journal record: " + line);
+                }
+            }
+        }
+        return next;
+    }
+
+    private static void writeFully(FileChannel out, StringBuilder batch) {
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            while (bytes.hasRemaining()) out.write(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write the compacted task journal.", e);
+        }
+        batch.setLength(0);
+    }
+
+    private static String record(ScheduledTask task) {
+        return "S\t" + task.getId() + "\t" + task.deadline + "\t" + task.getIntervalMillis() + "\t" + task.getHandler()
+                + "\t" + escape(task.getPayload()) + "\n";
+    }
+
+    private static void checkName(String name) {
+        if (name == null || name.isEmpty() || name.indexOf('\t') >= 0 || name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0)
+            throw new IllegalArgumentException("Handler names can't be empty or contain tabs or line breaks.");
+    }
+
+    private static String escape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\t') out.append("\\t");
+            else if (c == '\n') out.append("\\n");
+            else if (c == '\r') out.append("\\r");
+            else if (c == '\\') out.append("\\\\");
+            else out.append(c);
+        }
+        return out.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                out.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+        }
+        return out.toString();
+    }
+
+    private interface RecordConsumer {
+        void accept(long id, String[] fields);
+    }
+
+    /**
+     * Open addressing map of task IDs to journal lines, 16 bytes per task while compacting.
+     * IDs start at 1, so 0 marks an empty slot. Removed entries keep their slot with line 0.
+     */
+    private static final class LongLongMap {
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024];
+        private int size;
+
+        void put(long key, long value) {
+            if ((this.size + 1) * 4 > this.keys.length * 3) this.resize();
+            int slot = this.slot(key);
+            if (this.keys[slot] == 0) this.size++;
+            this.keys[slot] = key;
+            this.values[slot] = value;
+        }
+
+        long get(long key) {
+            int slot = this.slot(key);
+            return this.keys[slot] == key ? this.values[slot] : 0;
+        }
+
+        void remove(long key) {
+            int slot = this.slot(key);
+            if (this.keys[slot] == key) this.values[slot] = 0;
+        }
+
+        private int slot(long key) {
+            int mask = this.keys.length - 1;
+            int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+            while (this.keys[slot] != 0 && this.keys[slot] != key) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void resize() {
+            long[] keys = this.keys;
+            long[] values = this.values;
+            this.keys = new long[keys.length * 2];
+            this.values = new long[keys.length * 2];
+            this.size = 0;
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] != 0 && values[i] != 0) this.put(keys[i], values[i]);
+        }
+    }
+}
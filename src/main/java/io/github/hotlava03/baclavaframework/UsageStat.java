@@ -0,0 +1,95 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage counters of a command, a guild, or a command in a guild.
+ *
+ * @see UsageStatsStore
+ */
+public class UsageStat {
+    private final String command;
+    private final long guildId;
+    private final long invocations;
+    private final long errors;
+    private final long totalLatencyNanos;
+
+    UsageStat(String command, long guildId, long invocations, long errors, long totalLatencyNanos) {
+        this.command = command;
+        this.guildId = guildId;
+        this.invocations = invocations;
+        this.errors = errors;
+        this.totalLatencyNanos = totalLatencyNanos;
+    }
+
+    /**
+     * @return The command name, or null if these are the counters of a whole guild.
+     */
+    @Nullable
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return The guild ID, 0 for direct messages, or -1 if these are the counters of a command in all guilds.
+     */
+    public long getGuildId() {
+        return guildId;
+    }
+
+    /**
+     * @return The amount of invocations, including failed ones.
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @return The amount of invocations that threw an exception.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @param unit The unit to get the latency in.
+     * @return The total time spent executing.
+     */
+    public long getTotalLatency(TimeUnit unit) {
+        return unit.convert(this.totalLatencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit The unit to get the latency in.
+     * @return The average time spent executing, 0 if never invoked.
+     */
+    public long getAverageLatency(TimeUnit unit) {
+        return this.invocations == 0 ? 0 : unit.convert(this.totalLatencyNanos / this.invocations, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "UsageStat{command=" + this.command + ", guildId=" + this.guildId + ", invocations=" + this.invocations
+                + ", errors=" + this.errors + ", averageLatencyMs=" + this.getAverageLatency(TimeUnit.MILLISECONDS) + "}";
+    }
+}
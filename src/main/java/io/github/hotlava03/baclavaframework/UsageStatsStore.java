@@ -0,0 +1,494 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Per-command, per-guild usage counters kept in a memory-mapped file, so they survive restarts
+ * without growing the heap or doing I/O per invocation.<br><br>
+ *
+ * The file is an open addressing hash table of fixed-size records (guild ID, command ordinal,
+ * invocations, errors, total latency) split into segments, each guarded by its own lock.
+ * Command ordinals are the line numbers of an append-only index of command names next to it.
+ * The table doubles in the background when a segment gets three quarters full, and is
+ * periodically compacted to drop the counters of commands that aren't registered anymore.
+ * Invocations are never held up by file I/O: new command names are written to the index in
+ * the background too, and an invocation finding its segment full isn't counted. Counters
+ * whose command name didn't make it to the index before a crash are left out of the command
+ * rankings.
+ *
+ * @see BaclavaFrameworkBuilder#setUsageStats(Path directory)
+ * @see BaclavaFramework#getUsageStats()
+ */
+public class UsageStatsStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UsageStatsStore.class);
+
+    private static final int MAGIC = 0x42435553;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 40;
+    private static final int GUILD = 0;
+    private static final int COMMAND = 8;
+    private static final int INVOCATIONS = 16;
+    private static final int ERRORS = 24;
+    private static final int LATENCY = 32;
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_SEGMENT_SLOTS = 256;
+
+    private final Path file;
+    private final Path indexFile;
+    private final CommandRegisterer registerer;
+    private final ReentrantLock[] locks = new ReentrantLock[SEGMENTS];
+    private final int[] used = new int[SEGMENTS];
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final ScheduledExecutorService maintenance;
+    private final AtomicBoolean growing = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    // Held while forcing or swapping the mapping, so it isn't unmapped under a flush.
+    private final Object mapping = new Object();
+    private volatile MappedByteBuffer buffer;
+    private volatile int segmentSlots;
+    private volatile int failedSegmentSlots;
+    private int indexed;
+
+    UsageStatsStore(Path directory, CommandRegisterer registerer) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve("usage.dat");
+        this.indexFile = directory.resolve("commands.idx");
+        this.registerer = registerer;
+        for (int i = 0; i < SEGMENTS; i++) this.locks[i] = new ReentrantLock();
+
+        if (Files.exists(this.indexFile)) {
+            for (String name : Files.readAllLines(this.indexFile, StandardCharsets.UTF_8)) {
+                if (!name.isEmpty()) this.ordinals.putIfAbsent(name, this.names.size());
+                this.names.add(name);
+            }
+            this.indexed = this.names.size();
+        }
+        if (Files.exists(this.file)) this.open();
+        else this.create(this.file, INITIAL_SEGMENT_SLOTS);
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(
+                BaclavaFrameworkBuilder.daemonThreads("baclava-usage-stats"));
+        this.maintenance.scheduleWithFixedDelay(this::flush, 30, 30, TimeUnit.SECONDS);
+        this.maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                this.compact();
+            } catch (IOException e) {
+                LOGGER.error("Could not compact the usage stats.", e);
+            }
+        }, 1, 1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Get the most used commands across all guilds.
+     *
+     * @param limit The maximum amount of commands to return.
+     * @return The commands, most invoked first.
+     */
+    public List<UsageStat> getTopCommands(int limit) {
+        Map<Integer, long[]> totals = new HashMap<>();
+        this.scan((guildId, ordinal, counters) -> add(totals.computeIfAbsent(ordinal, o -> new long[3]), counters));
+        List<UsageStat> stats = new ArrayList<>();
+        totals.forEach((ordinal, counters) -> {
+            UsageStat stat = this.toStat(ordinal, -1, counters);
+            if (stat != null) stats.add(stat);
+        });
+        return top(stats, limit);
+    }
+
+    /**
+     * Get the most used commands in a guild.
+     *
+     * @param guildId The guild ID, or 0 for direct messages.
+     * @param limit The maximum amount of commands to return.
+     * @return The commands, most invoked first.
+     */
+    public List<UsageStat> getTopCommands(long guildId, int limit) {
+        List<UsageStat> stats = new ArrayList<>();
+        this.scan((guild, ordinal, counters) -> {
+            if (guild != guildId) return;
+            UsageStat stat = this.toStat(ordinal, guild, counters.clone());
+            if (stat != null) stats.add(stat);
+        });
+        return top(stats, limit);
+    }
+
+    /**
+     * Get the guilds using commands the most.
+     *
+     * @param limit The maximum amount of guilds to return.
+     * @return The guilds, most invocations first. Direct messages count as guild 0.
+     */
+    public List<UsageStat> getTopGuilds(int limit) {
+        Map<Long, long[]> totals = new HashMap<>();
+        this.scan((guildId, ordinal, counters) -> add(totals.computeIfAbsent(guildId, g -> new long[3]), counters));
+        List<UsageStat> stats = new ArrayList<>();
+        totals.forEach((guildId, counters) -> stats.add(new UsageStat(null, guildId, counters[0], counters[1], counters[2])));
+        return top(stats, limit);
+    }
+
+    /**
+     * Write the counters and the command index to disk. Also done every 30 seconds.
+     */
+    public void flush() {
+        this.writeIndex();
+        synchronized (this.mapping) {
+            this.buffer.force();
+        }
+    }
+
+    void record(String command, long guildId, boolean error, long latencyNanos) {
+        int ordinal = this.ordinal(command);
+        long hash = hash(guildId, ordinal);
+        int segment = (int) (hash >>> 58);
+        ReentrantLock lock = this.locks[segment];
+        lock.lock();
+        try {
+            int slots = this.segmentSlots;
+            int position = this.find(segment, hash, guildId, ordinal, true);
+            if (this.used[segment] * 4 >= slots * 3) this.requestGrow(slots);
+            if (position < 0) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+            MappedByteBuffer buffer = this.buffer;
+            buffer.putLong(position + INVOCATIONS, buffer.getLong(position + INVOCATIONS) + 1);
+            if (error) buffer.putLong(position + ERRORS, buffer.getLong(position + ERRORS) + 1);
+            buffer.putLong(position + LATENCY, buffer.getLong(position + LATENCY) + latencyNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrite the table, dropping the counters of commands that aren't registered anymore.
+     */
+    void compact() throws IOException {
+        Set<String> registered = new HashSet<>(this.registerer.getAllCommandNames());
+        List<String> names;
+        synchronized (this.names) {
+            names = new ArrayList<>(this.names);
+        }
+        // Commands first seen after the snapshot are obviously still in use.
+        int slots = this.segmentSlots;
+        this.rewrite(slots, slots, ordinal -> ordinal >= names.size() || registered.contains(names.get(ordinal)));
+    }
+
+    void close() {
+        this.maintenance.shutdown();
+        this.flush();
+    }
+
+    void registerMetrics(FrameworkMetrics metrics) {
+        metrics.gauge("baclava_usage_stats_slots", "Record slots in the usage stats file.", null,
+                () -> (double) this.segmentSlots * SEGMENTS);
+        metrics.gauge("baclava_usage_stats_records", "Records used in the usage stats file.", null, () -> {
+            long total = 0;
+            for (int count : this.used) total += count;
+            return total;
+        });
+        metrics.counter("baclava_usage_stats_dropped", "Invocations not counted because their segment was full.", null,
+                this.dropped::get);
+    }
+
+    /**
+     * Find the record of a key in its segment, inserting it if absent and allowed.
+     *
+     * @return The record position, or -1 if absent and not inserted.
+     */
+    private int find(int segment, long hash, long guildId, int ordinal, boolean insert) {
+        MappedByteBuffer buffer = this.buffer;
+        int slots = this.segmentSlots;
+        int start = (int) hash & (slots - 1);
+        for (int i = 0; i < slots; i++) {
+            int position = HEADER_SIZE + (segment * slots + ((start + i) & (slots - 1))) * RECORD_SIZE;
+            int stored = buffer.getInt(position + COMMAND);
+            if (stored == ordinal + 1 && buffer.getLong(position + GUILD) == guildId) return position;
+            if (stored == 0) {
+                if (!insert) return -1;
+                buffer.putLong(position + GUILD, guildId);
+                buffer.putInt(position + COMMAND, ordinal + 1);
+                this.used[segment]++;
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private int ordinal(String command) {
+        Integer ordinal = this.ordinals.get(command);
+        if (ordinal != null) return ordinal;
+        synchronized (this.names) {
+            ordinal = this.ordinals.get(command);
+            if (ordinal != null) return ordinal;
+            ordinal = this.names.size();
+            this.names.add(command);
+            this.ordinals.put(command, ordinal);
+        }
+        try {
+            this.maintenance.execute(this::writeIndex);
+        } catch (RejectedExecutionException e) {
+            // Closing, the last flush writes it.
+        }
+        return ordinal;
+    }
+
+    /**
+     * Append the command names not yet in the index file, in ordinal order. Names that
+     * couldn't be written are tried again on the next flush.
+     */
+    private void writeIndex() {
+        synchronized (this.indexFile) {
+            List<String> added;
+            synchronized (this.names) {
+                if (this.indexed == this.names.size()) return;
+                added = new ArrayList<>(this.names.subList(this.indexed, this.names.size()));
+            }
+            try {
+                Files.write(this.indexFile, added, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                this.indexed += added.size();
+            } catch (IOException e) {
+                LOGGER.error("Could not add " + added + " to the usage stats index.", e);
+            }
+        }
+    }
+
+    private void requestGrow(int observedSlots) {
+        if (observedSlots == this.failedSegmentSlots || !this.growing.compareAndSet(false, true)) return;
+        try {
+            this.maintenance.execute(() -> {
+                try {
+                    this.rewrite(observedSlots, observedSlots * 2, ordinal -> true);
+                } catch (IOException e) {
+                    this.failedSegmentSlots = observedSlots;
+                    LOGGER.error("Could not grow the usage stats file.", e);
+                } finally {
+                    this.growing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.growing.set(false);
+        }
+    }
+
+    /**
+     * Copy all kept records to a new table with the given segment size and swap it in,
+     * unless another thread already changed the table size in the meantime.
+     */
+    private void rewrite(int expectedSegmentSlots, int newSegmentSlots, IntPredicate keep) throws IOException {
+        for (ReentrantLock lock : this.locks) lock.lock();
+        try {
+            if (this.segmentSlots != expectedSegmentSlots) return;
+            MappedByteBuffer old = this.buffer;
+            int oldSlots = this.segmentSlots;
+            Path temporary = this.file.resolveSibling("usage.dat.tmp");
+            this.create(temporary, newSegmentSlots);
+            Arrays.fill(this.used, 0);
+
+            for (int slot = 0; slot < oldSlots * SEGMENTS; slot++) {
+                int from = HEADER_SIZE + slot * RECORD_SIZE;
+                int stored = old.getInt(from + COMMAND);
+                if (stored == 0 || !keep.test(stored - 1)) continue;
+                long guildId = old.getLong(from + GUILD);
+                long hash = hash(guildId, stored - 1);
+                int to = this.find((int) (hash >>> 58), hash, guildId, stored - 1, true);
+                this.buffer.putLong(to + INVOCATIONS, old.getLong(from + INVOCATIONS));
+                this.buffer.putLong(to + ERRORS, old.getLong(from + ERRORS));
+                this.buffer.putLong(to + LATENCY, old.getLong(from + LATENCY));
+            }
+
+            synchronized (this.mapping) {
+                MappedByteBuffer replacement = this.buffer;
+                replacement.force();
+                // Windows can't replace a mapped file.
+                unmap(old);
+                unmap(replacement);
+                try {
+                    Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    this.buffer = map(temporary);
+                    throw e;
+                }
+                this.buffer = map(this.file);
+            }
+        } finally {
+            for (ReentrantLock lock : this.locks) lock.unlock();
+        }
+    }
+
+    private void create(Path path, int segmentSlots) throws IOException {
+        long size = HEADER_SIZE + (long) segmentSlots * SEGMENTS * RECORD_SIZE;
+        if (size > Integer.MAX_VALUE) throw new IOException("The usage stats file can't grow past 2GB.");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, segmentSlots);
+            this.buffer = buffer;
+            this.segmentSlots = segmentSlots;
+        }
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+    }
+
+    /**
+     * Release a mapping now rather than once it is garbage collected. It must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafe.getMethod("invokeCleaner", ByteBuffer.class);
+                Field instance = unsafe.getDeclaredField("theUnsafe");
+                instance.setAccessible(true);
+                invokeCleaner.invoke(instance.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object clean = cleaner.invoke(buffer);
+                if (clean != null) clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Could not unmap the usage stats file, it will be once garbage collected.", e);
+        }
+    }
+
+    private void open() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException(this.file + " is not a usage stats file of this version.");
+            int segmentSlots = buffer.getInt(8);
+            if (channel.size() != HEADER_SIZE + (long) segmentSlots * SEGMENTS * RECORD_SIZE)
+                throw new IOException(this.file + " is truncated.");
+
+            int commands = 0;
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                for (int slot = 0; slot < segmentSlots; slot++) {
+                    int stored = buffer.getInt(HEADER_SIZE + (segment * segmentSlots + slot) * RECORD_SIZE + COMMAND);
+                    if (stored == 0) continue;
+                    this.used[segment]++;
+                    commands = Math.max(commands, stored);
+                }
+            }
+            this.buffer = buffer;
+            this.segmentSlots = segmentSlots;
+            if (commands <= this.names.size()) return;
+            // Crashed before the index was written. Keep the ordinals taken, with empty names.
+            LOGGER.warn("The names of " + (commands - this.names.size()) + " commands were lost from the usage stats "
+                    + "index, their counters are dropped on the next compaction.");
+            while (this.names.size() < commands) this.names.add("");
+        }
+    }
+
+    private void scan(RecordVisitor visitor) {
+        long[] counters = new long[3];
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            ReentrantLock lock = this.locks[segment];
+            lock.lock();
+            try {
+                MappedByteBuffer buffer = this.buffer;
+                int slots = this.segmentSlots;
+                for (int slot = 0; slot < slots; slot++) {
+                    int position = HEADER_SIZE + (segment * slots + slot) * RECORD_SIZE;
+                    int stored = buffer.getInt(position + COMMAND);
+                    if (stored == 0) continue;
+                    counters[0] = buffer.getLong(position + INVOCATIONS);
+                    counters[1] = buffer.getLong(position + ERRORS);
+                    counters[2] = buffer.getLong(position + LATENCY);
+                    visitor.visit(buffer.getLong(position + GUILD), stored - 1, counters);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return The stat, or null if the command name was lost.
+     */
+    private UsageStat toStat(int ordinal, long guildId, long[] counters) {
+        String name;
+        synchronized (this.names) {
+            name = ordinal < this.names.size() ? this.names.get(ordinal) : "";
+        }
+        if (name.isEmpty()) return null;
+        return new UsageStat(name, guildId, counters[0], counters[1], counters[2]);
+    }
+
+    private static void add(long[] totals, long[] counters) {
+        for (int i = 0; i < totals.length; i++) totals[i] += counters[i];
+    }
+
+    private static List<UsageStat> top(List<UsageStat> stats, int limit) {
+        stats.sort(Comparator.comparingLong(UsageStat::getInvocations).reversed());
+        return stats.size() > limit ? new ArrayList<>(stats.subList(0, limit)) : stats;
+    }
+
+    private static long hash(long guildId, int ordinal) {
+        long hash = guildId * 0x9E3779B97F4A7C15L + ordinal * 0xC2B2AE3D27D4EB4FL;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        return hash ^ hash >>> 32;
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(long guildId, int ordinal, long[] counters);
+    }
+}
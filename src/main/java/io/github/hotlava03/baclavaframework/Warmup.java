@@ -0,0 +1,93 @@
+/*
+ * BaclavaFramework - Simple JDA command client.
+ * Copyright (C) 2020 HotLava03
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.hotlava03.baclavaframework;
+
+import club.minnced.jda.reactor.ReactiveEventManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drives synthetic messages through the whole dispatch path (event manager, filters, handler,
+ * commands and replies) against an {@link OfflineGateway}, so the JIT compiles it before real
+ * traffic arrives. Nothing is recorded: the warmup runs with its own metrics and no sinks, and
+ * bypasses the bulkheads and circuit breakers it shares with the real commands.
+ */
+class Warmup {
+    private static final String ECHO = "baclava-warmup";
+
+    private final String prefix;
+    private final long ownerId;
+    private final CommandRegisterer registerer;
+
+    Warmup(String prefix, CommandRegisterer commands, long ownerId) {
+        this.prefix = prefix;
+        this.ownerId = ownerId;
+        // Falls back to the real commands, for the ones that opted in.
+        this.registerer = new CommandRegisterer() {
+            @Override
+            public void handleRegistration() {
+            }
+        };
+        this.registerer.setParent(commands);
+        this.registerer.register(ECHO, e -> e.getAuthor().getName() + (e.hasFlag("args") ? " " + String.join(" ", e.getArgs()) : ""));
+    }
+
+    /**
+     * @param iterations How many times to go through the samples.
+     * @return The amount of messages dispatched.
+     */
+    long run(int iterations) {
+        List<String> samples = new ArrayList<>();
+        samples.add(this.prefix + ECHO + " some arguments --args");
+        samples.add(this.prefix + ECHO);
+        samples.add(this.prefix + "baclava-warmup-unknown");
+        samples.add("not a command");
+        for (Command command : this.registerer.getCommandsAsList())
+            for (String sample : command.getWarmupSamples())
+                samples.add(this.prefix + command.getName() + (sample.isEmpty() ? "" : " " + sample));
+
+        OfflineGateway gateway = new OfflineGateway((channelId, content) -> {
+        });
+        FrameworkServices services = new FrameworkServices();
+        services.tracer = new CommandTracer(Integer.MAX_VALUE);
+        services.waiter = new EventWaiter(null);
+        CommandHandler handler = new CommandHandler(this.prefix, this.registerer, this.ownerId, services);
+        handler.skipGuards();
+        Shard shard = new Shard(0, 0, new ReactiveEventManager());
+        shard.jda = gateway.getJDA();
+        BaclavaFrameworkBuilder.listen(shard, this.prefix, gateway.track(handler::acceptCall), gateway::drop, services);
+        gateway.attach(shard.manager);
+        new BaclavaFrameworkImpl(Collections.singletonList(shard), this.prefix, this.registerer, this.ownerId,
+                services);
+
+        long dispatched = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (String sample : samples) {
+                // Alternate guild messages and direct messages, and a few users.
+                gateway.dispatch(dispatched % 3 == 0 ? 0 : 1 + dispatched % 2, 10 + dispatched % 4,
+                        100 + dispatched % 8, sample);
+                dispatched++;
+            }
+        }
+        services.waiter.stop();
+        return dispatched;
+    }
+}